@@ -0,0 +1,395 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates creators for classes annotated with {@code sharewear.annotations.AutoShareable}. The annotations are
+ * referenced by name so that this processor does not depend on the Android library.
+ */
+public final class ShareableProcessor extends AbstractProcessor {
+    static final String AUTO_SHAREABLE = "sharewear.annotations.AutoShareable";
+    static final String SHARED_FIELD = "sharewear.annotations.SharedField";
+
+    private static final String SHAREABLE = "sharewear.Shareable";
+    private static final String BITMAP = "android.graphics.Bitmap";
+    private static final String ASYNC_BITMAP = "sharewear.AsyncBitmap";
+    private static final String LAZY_SHAREABLE = "sharewear.LazyShareable";
+    private static final String SUFFIX = "$$Shareable";
+    private static final String REGISTRY = "SharewearCreatorRegistry";
+
+    private final Set<String> generatedRegistries = new HashSet<String>();
+
+    private Elements elements;
+    private Types types;
+    private Messager messager;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<String>(Arrays.asList(AUTO_SHAREABLE, SHARED_FIELD));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        messager = processingEnv.getMessager();
+
+        TypeElement autoShareable = elements.getTypeElement(AUTO_SHAREABLE);
+        if (autoShareable == null) {
+            return false;
+        }
+
+        Map<String, List<TypeElement>> packages = new LinkedHashMap<String, List<TypeElement>>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(autoShareable)) {
+            TypeElement type = (TypeElement) element;
+            if (generateShareable(type)) {
+                String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+                List<TypeElement> list = packages.get(packageName);
+                if (list == null) {
+                    list = new ArrayList<TypeElement>();
+                    packages.put(packageName, list);
+                }
+                list.add(type);
+            }
+        }
+
+        for (Map.Entry<String, List<TypeElement>> entry : packages.entrySet()) {
+            generateRegistry(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    private boolean generateShareable(TypeElement type) {
+        if (!isValidShareable(type)) {
+            return false;
+        }
+        int version = getIntValue(type, AUTO_SHAREABLE, "version", 0);
+
+        List<VariableElement> fields = new ArrayList<VariableElement>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (getAnnotation(field, SHARED_FIELD) == null) {
+                continue;
+            }
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)
+                    || modifiers.contains(Modifier.STATIC)
+                    || modifiers.contains(Modifier.FINAL)) {
+                error(field, "@SharedField fields must not be private, static or final");
+                return false;
+            }
+            if (readExpression(field) == null) {
+                error(field, "Unsupported @SharedField type: " + field.asType());
+                return false;
+            }
+            fields.add(field);
+        }
+
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String className = generatedName(type);
+        String typeName = type.getQualifiedName().toString();
+
+        StringBuilder source = new StringBuilder();
+        source.append(header(packageName));
+        source.append("import sharewear.Shareable;\n");
+        source.append("import sharewear.SharedParcel;\n\n");
+        source.append("public final class ").append(className).append(" {\n");
+        source.append("    public static final Shareable.Creator<").append(typeName).append("> CREATOR\n");
+        source.append("            = new Shareable.Creator<").append(typeName).append(">() {\n");
+        source.append("        @Override\n");
+        source.append("        public int getVersion() {\n");
+        source.append("            return ").append(version).append(";\n");
+        source.append("        }\n\n");
+        source.append("        @Override\n");
+        source.append("        public ").append(typeName).append(" createFromSharedParcel(SharedParcel source, int version) {\n");
+        source.append("            ").append(typeName).append(" val = new ").append(typeName).append("();\n");
+        for (VariableElement field : fields) {
+            int since = getIntValue(field, SHARED_FIELD, "since", 0);
+            String assignment = "val." + field.getSimpleName() + " = " + readExpression(field) + ";\n";
+            if (since > 0) {
+                source.append("            if (version >= ").append(since).append(") {\n");
+                source.append("                ").append(assignment);
+                source.append("            }\n");
+            } else {
+                source.append("            ").append(assignment);
+            }
+        }
+        source.append("            return val;\n");
+        source.append("        }\n\n");
+        source.append("        @Override\n");
+        source.append("        public ").append(typeName).append("[] newArray(int size) {\n");
+        source.append("            return new ").append(typeName).append("[size];\n");
+        source.append("        }\n");
+        source.append("    };\n\n");
+        source.append("    private ").append(className).append("() {}\n\n");
+        source.append("    public static void writeToSharedParcel(").append(typeName)
+                .append(" val, SharedParcel dest, int flags) {\n");
+        for (VariableElement field : fields) {
+            source.append("        ").append(writeStatement(field)).append("\n");
+        }
+        source.append("    }\n");
+        source.append("}\n");
+
+        return write(packageName, className, source.toString(), type);
+    }
+
+    private void generateRegistry(String packageName, List<TypeElement> typeElements) {
+        if (!generatedRegistries.add(packageName)) {
+            // a later round found more classes, which a registry written in an earlier round cannot include
+            messager.printMessage(Diagnostic.Kind.ERROR, REGISTRY + " already generated for package "
+                    + packageName + "; @AutoShareable classes generated by other processors cannot be registered");
+            return;
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append(header(packageName));
+        source.append("import sharewear.CreatorRegistry;\n");
+        source.append("import sharewear.Shareable;\n\n");
+        source.append("public final class ").append(REGISTRY).append(" implements CreatorRegistry {\n");
+        source.append("    public static final ").append(REGISTRY).append(" INSTANCE = new ")
+                .append(REGISTRY).append("();\n\n");
+        source.append("    private ").append(REGISTRY).append("() {}\n\n");
+        source.append("    @Override\n");
+        source.append("    public Shareable.Creator<?> getCreator(String className) {\n");
+        source.append("        switch (className) {\n");
+        for (TypeElement type : typeElements) {
+            source.append("            case \"").append(elements.getBinaryName(type)).append("\":\n");
+            source.append("                return ").append(generatedName(type)).append(".CREATOR;\n");
+        }
+        source.append("            default:\n");
+        source.append("                return null;\n");
+        source.append("        }\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        write(packageName, REGISTRY, source.toString(),
+                typeElements.toArray(new Element[typeElements.size()]));
+    }
+
+    private boolean isValidShareable(TypeElement type) {
+        TypeElement shareable = elements.getTypeElement(SHAREABLE);
+        if (type.getKind() != ElementKind.CLASS
+                || shareable == null
+                || !types.isSubtype(type.asType(), shareable.asType())) {
+            error(type, "@AutoShareable can only be applied to subclasses of " + SHAREABLE);
+            return false;
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "@AutoShareable classes must not be abstract");
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(type, "@AutoShareable nested classes must be static");
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        error(type, "@AutoShareable classes must have a non-private no-arg constructor");
+        return false;
+    }
+
+    private String readExpression(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind() == TypeKind.BOOLEAN) {
+            return "source.readBoolean()";
+        } else if (type.getKind() == TypeKind.INT) {
+            return "source.readInt()";
+        } else if (type.getKind() == TypeKind.LONG) {
+            return "source.readLong()";
+        } else if (type.getKind() == TypeKind.ARRAY) {
+            String name = arrayName(type);
+            return name == null ? null : "source.read" + name + "Array()";
+        } else if (isType(type, String.class.getName())) {
+            return "source.readString()";
+        } else if (isType(type, BITMAP)) {
+            return "source.readBitmap()";
+        } else if (isType(type, ASYNC_BITMAP)) {
+            return "source.readAsyncBitmap()";
+        } else if (isShareable(type)) {
+            String name = types.erasure(type).toString();
+            return "source.<" + name + ">readShareable(" + name + ".class.getClassLoader())";
+        } else if (isLazyShareable(type)) {
+            List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+            if (arguments.size() == 1 && isShareable(arguments.get(0))) {
+                String name = types.erasure(arguments.get(0)).toString();
+                return "source.<" + name + ">readLazyShareable(" + name + ".class.getClassLoader())";
+            }
+        }
+        return null;
+    }
+
+    private String writeStatement(VariableElement field) {
+        TypeMirror type = field.asType();
+        String value = "val." + field.getSimpleName();
+        if (type.getKind() == TypeKind.BOOLEAN) {
+            return "dest.writeBoolean(" + value + ");";
+        } else if (type.getKind() == TypeKind.INT) {
+            return "dest.writeInt(" + value + ");";
+        } else if (type.getKind() == TypeKind.LONG) {
+            return "dest.writeLong(" + value + ");";
+        } else if (type.getKind() == TypeKind.ARRAY) {
+            return "dest.write" + arrayName(type) + "Array(" + value + ");";
+        } else if (isType(type, String.class.getName())) {
+            return "dest.writeString(" + value + ");";
+        } else if (isType(type, BITMAP)) {
+            return "dest.writeBitmap(" + value + ", flags);";
+        } else if (isType(type, ASYNC_BITMAP)) {
+            return "dest.writeAsyncBitmap(" + value + ", flags);";
+        } else if (isLazyShareable(type)) {
+            return "dest.writeLazyShareable(" + value + ", flags);";
+        }
+        return "dest.writeShareable(" + value + ", flags);";
+    }
+
+    private static String arrayName(TypeMirror type) {
+        switch (((ArrayType) type).getComponentType().getKind()) {
+            case BYTE:
+                return "Byte";
+            case INT:
+                return "Int";
+            case LONG:
+                return "Long";
+            case FLOAT:
+                return "Float";
+            case DOUBLE:
+                return "Double";
+            default:
+                return null;
+        }
+    }
+
+    private boolean isType(TypeMirror type, String name) {
+        TypeElement element = elements.getTypeElement(name);
+        return element != null && types.isSameType(type, element.asType());
+    }
+
+    private boolean isLazyShareable(TypeMirror type) {
+        TypeElement lazy = elements.getTypeElement(LAZY_SHAREABLE);
+        return type.getKind() == TypeKind.DECLARED
+                && lazy != null
+                && types.isSameType(types.erasure(type), types.erasure(lazy.asType()));
+    }
+
+    private boolean isShareable(TypeMirror type) {
+        TypeElement shareable = elements.getTypeElement(SHAREABLE);
+        return type.getKind() == TypeKind.DECLARED
+                && shareable != null
+                && types.isSubtype(type, shareable.asType());
+    }
+
+    private String generatedName(TypeElement type) {
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(type).toString();
+        if (!packageName.isEmpty()) {
+            binaryName = binaryName.substring(packageName.length() + 1);
+        }
+        return binaryName + SUFFIX;
+    }
+
+    private static String header(String packageName) {
+        StringBuilder header = new StringBuilder();
+        header.append("// Generated code from Sharewear. Do not modify!\n");
+        if (!packageName.isEmpty()) {
+            header.append("package ").append(packageName).append(";\n\n");
+        }
+        return header.toString();
+    }
+
+    private boolean write(String packageName, String className, String source, Element... originatingElements) {
+        String name = packageName.isEmpty() ? className : packageName + "." + className;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(name, originatingElements);
+            Writer writer = file.openWriter();
+            try {
+                writer.write(source);
+            } finally {
+                writer.close();
+            }
+            return true;
+        } catch (IOException e) {
+            error(originatingElements[0], "Unable to write " + name + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private AnnotationMirror getAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private int getIntValue(Element element, String annotationName, String key, int defaultValue) {
+        AnnotationMirror mirror = getAnnotation(element, annotationName);
+        if (mirror != null) {
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals(key)) {
+                    return (Integer) entry.getValue().getValue();
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    private void error(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
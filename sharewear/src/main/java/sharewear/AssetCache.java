@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.wearable.Asset;
+
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import sharewear.internal.WearLog;
+
+/**
+ * Content addressed cache of outgoing {@link Asset} objects, so identical bytes are hashed once and share one Asset.
+ * Arrays owned by the library, such as the immutable output of a {@link sharewear.util.CachingBitmapEncoder}, are
+ * first looked up by identity, which skips hashing entirely. Every other array is looked up by its SHA-1 digest and
+ * copied before it is wrapped in an Asset, since its owner may change it later. The digest cache holds at most a fixed
+ * number of bytes, evicting the least recently used assets.
+ */
+final class AssetCache {
+    private static final String TAG = AssetCache.class.getSimpleName();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // arrays hash and compare by identity. The values are weak since each asset references its key.
+    private final WeakHashMap<byte[], WeakReference<Asset>> byInstance
+            = new WeakHashMap<byte[], WeakReference<Asset>>();
+    private final LinkedHashMap<String, Asset> byDigest = new LinkedHashMap<String, Asset>(16, 0.75f, true);
+    private int maxBytes;
+    private int size;
+
+    AssetCache(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the asset for some bytes.
+     *
+     * @param bytes
+     *         the bytes
+     * @param owned
+     *         true if the array is owned by the library and never changes, so it can be looked up by identity and
+     *         wrapped without a copy. False for arrays passed in by callers, which may reuse them.
+     *
+     * @return the asset
+     */
+    @NonNull
+    Asset get(@NonNull byte[] bytes, boolean owned) {
+        if (owned) {
+            synchronized (this) {
+                WeakReference<Asset> ref = byInstance.get(bytes);
+                Asset asset = ref == null ? null : ref.get();
+                if (asset != null) {
+                    return asset;
+                }
+            }
+        }
+
+        if (bytes.length > maxBytes) {
+            return create(bytes, owned);
+        }
+        String digest = digest(bytes);
+        if (digest == null) {
+            return create(bytes, owned);
+        }
+
+        synchronized (this) {
+            Asset asset = byDigest.get(digest);
+            if (asset == null) {
+                asset = create(bytes, owned);
+                byDigest.put(digest, asset);
+                size += bytes.length;
+                trimToSize();
+            }
+            if (owned) {
+                byInstance.put(bytes, new WeakReference<Asset>(asset));
+            }
+            return asset;
+        }
+    }
+
+    synchronized void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    synchronized void clear() {
+        byInstance.clear();
+        byDigest.clear();
+        size = 0;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Asset>> iterator = byDigest.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            size -= iterator.next().getValue().getData().length;
+            iterator.remove();
+        }
+    }
+
+    private static Asset create(byte[] bytes, boolean owned) {
+        return Asset.createFromBytes(owned ? bytes : bytes.clone());
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(bytes);
+            char[] chars = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            WearLog.e(TAG, "SHA-1 unavailable", e);
+            return null;
+        }
+    }
+}
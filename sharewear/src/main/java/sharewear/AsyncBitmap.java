@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import sharewear.internal.ApiClientPool;
+import sharewear.internal.WearExecutors;
+import sharewear.internal.WearLog;
+import sharewear.util.Callback;
+import sharewear.util.ImageUtils;
+
+/**
+ * A {@link Bitmap} that may still be loading. Reading one from a {@link SharedParcel} returns immediately, and the
+ * asset behind it is fetched on the {@link WearExecutors#data()} executor, so decoding many {@link Shareable} objects
+ * fetches their images concurrently instead of one after the other. Lazy bitmaps, read with {@link
+ * SharedParcel#readLazyBitmap()}, are only fetched once they are first accessed. If the bitmap was read with the
+ * shared client, that client is held while fetching, so it is reconnected if it was disconnected while idle. A
+ * bitmap read with any other client can only be fetched while that client is still connected.
+ */
+public final class AsyncBitmap implements Future<Bitmap> {
+    private static final String TAG = AsyncBitmap.class.getSimpleName();
+
+    private final Task task;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final List<Callback<Bitmap>> callbacks = new ArrayList<Callback<Bitmap>>();
+
+    private AsyncBitmap(Callable<Bitmap> callable) {
+        this.task = new Task(callable);
+    }
+
+    /**
+     * Creates an AsyncBitmap that has already loaded.
+     *
+     * @param bitmap
+     *         the loaded bitmap
+     *
+     * @return the loaded AsyncBitmap
+     */
+    @NonNull
+    public static AsyncBitmap of(@Nullable final Bitmap bitmap) {
+        AsyncBitmap asyncBitmap = new AsyncBitmap(new Callable<Bitmap>() {
+            @Override public Bitmap call() throws Exception {
+                return bitmap;
+            }
+        });
+        asyncBitmap.started.set(true);
+        asyncBitmap.task.run();
+        return asyncBitmap;
+    }
+
+    @NonNull
+    static AsyncBitmap load(@NonNull GoogleApiClient apiClient, @NonNull Asset asset, int reqWidth,
+            int reqHeight) {
+        AsyncBitmap asyncBitmap = defer(apiClient, asset, reqWidth, reqHeight);
+        asyncBitmap.start();
+        return asyncBitmap;
+    }
+
+    @NonNull
+    static AsyncBitmap defer(@NonNull final GoogleApiClient apiClient, @NonNull final Asset asset,
+            final int reqWidth, final int reqHeight) {
+        return new AsyncBitmap(new Callable<Bitmap>() {
+            @Override public Bitmap call() throws Exception {
+                ApiClientPool pool = ApiClientPool.getInstance();
+                boolean acquired = pool.acquireIfShared(apiClient);
+                try {
+                    return ImageUtils.fromAsset(apiClient, asset, reqWidth, reqHeight);
+                } finally {
+                    if (acquired) {
+                        pool.release(apiClient);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the bitmap if it has loaded, without blocking. A lazy bitmap starts loading.
+     *
+     * @return the bitmap, or null if it has not loaded or could not be loaded
+     */
+    @Nullable
+    public Bitmap peek() {
+        start();
+        return task.isDone() ? await() : null;
+    }
+
+    /**
+     * Blocks until the bitmap has loaded. This must not be called on the main thread.
+     *
+     * @return the bitmap, or null if it could not be loaded or the thread was interrupted
+     */
+    @Nullable
+    public Bitmap await() {
+        startOrRun();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            WearLog.e(TAG, "error loading bitmap", e.getCause());
+        } catch (RuntimeException e) {
+            // cancelled
+        }
+        return null;
+    }
+
+    /**
+     * Delivers the bitmap to a callback on the main thread once it has loaded. Callbacks added after loading are
+     * called right away on the next main loop.
+     *
+     * @param callback
+     *         the callback to receive the bitmap
+     */
+    public void getAsync(@NonNull Callback<Bitmap> callback) {
+        start();
+        synchronized (callbacks) {
+            if (!task.isDone()) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        deliver(callback);
+    }
+
+    @Override public boolean cancel(boolean mayInterruptIfRunning) {
+        return task.cancel(mayInterruptIfRunning);
+    }
+
+    @Override public boolean isCancelled() {
+        return task.isCancelled();
+    }
+
+    @Override public boolean isDone() {
+        return task.isDone();
+    }
+
+    @Override public Bitmap get() throws InterruptedException, ExecutionException {
+        startOrRun();
+        return task.get();
+    }
+
+    @Override public Bitmap get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        startOrRun();
+        return task.get(timeout, unit);
+    }
+
+    private void start() {
+        if (started.compareAndSet(false, true)) {
+            WearExecutors.execute(task);
+        }
+    }
+
+    private void startOrRun() {
+        start();
+        if (WearExecutors.isDataThread()) {
+            // waiting on a data thread for a fetch still queued behind it could deadlock, so fetch it here instead;
+            // this does nothing if another thread has already started it
+            task.run();
+        }
+    }
+
+    private void deliver(final Callback<Bitmap> callback) {
+        MainHandler.INSTANCE.post(new Runnable() {
+            @Override public void run() {
+                callback.onResult(await());
+            }
+        });
+    }
+
+    private final class Task extends FutureTask<Bitmap> {
+        private Task(Callable<Bitmap> callable) {
+            super(callable);
+        }
+
+        @Override protected void done() {
+            List<Callback<Bitmap>> pending;
+            synchronized (callbacks) {
+                pending = new ArrayList<Callback<Bitmap>>(callbacks);
+                callbacks.clear();
+            }
+            for (Callback<Bitmap> callback : pending) {
+                deliver(callback);
+            }
+        }
+    }
+
+    private static final class MainHandler {
+        private static final Handler INSTANCE = new Handler(Looper.getMainLooper());
+    }
+}
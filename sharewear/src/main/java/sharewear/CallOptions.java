@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import sharewear.internal.WearExecutors;
+
+/**
+ * Options for an asynchronous call in {@link WearUtils}. Options are immutable; each {@code with} method returns a
+ * copy.
+ */
+public final class CallOptions {
+    /** No deadline, callbacks on the main thread. */
+    public static final CallOptions DEFAULT = new CallOptions(0, null);
+
+    private final long timeoutNanos;
+    private final Executor callbackExecutor;
+
+    private CallOptions(long timeoutNanos, Executor callbackExecutor) {
+        this.timeoutNanos = timeoutNanos;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Sets a deadline for the call, measured from when it is submitted. Each blocking Play Services request the call
+     * makes only waits until the deadline, after which the call fails with a {@link
+     * java.util.concurrent.TimeoutException}.
+     *
+     * @param timeout
+     *         the timeout, or 0 for none
+     * @param unit
+     *         the unit of the timeout
+     *
+     * @return the new options
+     */
+    @NonNull
+    public CallOptions withTimeout(long timeout, @NonNull TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+        }
+        return new CallOptions(unit.toNanos(timeout), callbackExecutor);
+    }
+
+    /**
+     * Sets the executor callbacks are delivered on.
+     *
+     * @param executor
+     *         the executor, or null for the main thread
+     *
+     * @return the new options
+     */
+    @NonNull
+    public CallOptions withCallbackExecutor(@Nullable Executor executor) {
+        return new CallOptions(timeoutNanos, executor);
+    }
+
+    /**
+     * @return the timeout in nanoseconds, or 0 for none
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    @NonNull
+    public Executor getCallbackExecutor() {
+        return callbackExecutor == null ? WearExecutors.mainThread() : callbackExecutor;
+    }
+}
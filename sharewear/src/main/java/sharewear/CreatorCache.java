@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of previously looked up {@link Shareable.Creator} objects, keyed by ClassLoader and class name. Lookups never
+ * take a lock. ClassLoaders are only weakly referenced, and so are the creators, since a creator references its class,
+ * which in turn references its ClassLoader. The creator stays reachable through the static CREATOR field for as long
+ * as its class is loaded.
+ */
+final class CreatorCache {
+    private static final LoaderEntry[] EMPTY = new LoaderEntry[0];
+
+    private final ConcurrentHashMap<String, WeakReference<Shareable.Creator<?>>> nullLoaderCreators
+            = new ConcurrentHashMap<String, WeakReference<Shareable.Creator<?>>>();
+
+    // Copy on write. There are only ever a few class loaders, so a linear scan is faster than hashing a lookup key.
+    private volatile LoaderEntry[] entries = EMPTY;
+
+    @Nullable
+    Shareable.Creator<?> get(@Nullable ClassLoader loader, @NonNull String name) {
+        ConcurrentHashMap<String, WeakReference<Shareable.Creator<?>>> creators = creators(loader);
+        if (creators != null) {
+            WeakReference<Shareable.Creator<?>> ref = creators.get(name);
+            if (ref != null) {
+                return ref.get();
+            }
+        }
+        return null;
+    }
+
+    void put(@Nullable ClassLoader loader, @NonNull String name, @NonNull Shareable.Creator<?> creator) {
+        ConcurrentHashMap<String, WeakReference<Shareable.Creator<?>>> creators = creators(loader);
+        if (creators == null) {
+            creators = addLoader(loader);
+        }
+        creators.put(name, new WeakReference<Shareable.Creator<?>>(creator));
+    }
+
+    private ConcurrentHashMap<String, WeakReference<Shareable.Creator<?>>> creators(ClassLoader loader) {
+        if (loader == null) {
+            return nullLoaderCreators;
+        }
+        for (LoaderEntry entry : entries) {
+            if (entry.loader.get() == loader) {
+                return entry.creators;
+            }
+        }
+        return null;
+    }
+
+    private synchronized ConcurrentHashMap<String, WeakReference<Shareable.Creator<?>>> addLoader(
+            @NonNull ClassLoader loader) {
+        LoaderEntry[] current = entries;
+        int live = 0;
+        for (LoaderEntry entry : current) {
+            ClassLoader entryLoader = entry.loader.get();
+            if (entryLoader == loader) {
+                // added by another thread
+                return entry.creators;
+            } else if (entryLoader != null) {
+                live++;
+            }
+        }
+
+        // drop entries whose class loader has been collected
+        LoaderEntry[] updated = new LoaderEntry[live + 1];
+        int i = 0;
+        for (LoaderEntry entry : current) {
+            if (entry.loader.get() != null) {
+                updated[i++] = entry;
+            }
+        }
+        LoaderEntry added = new LoaderEntry(loader);
+        updated[i] = added;
+        entries = updated;
+        return added.creators;
+    }
+
+    private static final class LoaderEntry {
+        private final WeakReference<ClassLoader> loader;
+        private final ConcurrentHashMap<String, WeakReference<Shareable.Creator<?>>> creators
+                = new ConcurrentHashMap<String, WeakReference<Shareable.Creator<?>>>();
+
+        private LoaderEntry(ClassLoader loader) {
+            this.loader = new WeakReference<ClassLoader>(loader);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Maps Shareable class names to their {@link Shareable.Creator}. {@link SharedParcel} checks registered registries
+ * before looking up the {@code CREATOR} field through reflection. A registry is generated for every package containing
+ * {@link sharewear.annotations.AutoShareable} classes.
+ */
+public interface CreatorRegistry {
+    /**
+     * Gets the creator for a Shareable class.
+     *
+     * @param className
+     *         the name of the class, as returned by {@link Class#getName()}
+     *
+     * @return the creator or null if this registry does not know the class
+     */
+    @Nullable Shareable.Creator<?> getCreator(@NonNull String className);
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import sharewear.internal.ApiClientPool;
+
+/**
+ * A nested {@link Shareable} that is decoded on first access, then kept. Reading one from a {@link SharedParcel} only
+ * skips over its data, so objects with large nested fields are cheap to decode when those fields are never used. If
+ * it was read with the shared client, that client is held while decoding, so bitmaps inside it can still be fetched
+ * after the client was disconnected while idle. With any other client, they can only be fetched while that client is
+ * still connected.
+ *
+ * @param <T>
+ *         the type of Shareable
+ */
+public final class LazyShareable<T extends Shareable> {
+    private SharedParcel source;
+    private ClassLoader loader;
+    private T value;
+    private volatile boolean decoded;
+
+    LazyShareable(@NonNull SharedParcel source, ClassLoader loader) {
+        this.source = source;
+        this.loader = loader;
+    }
+
+    private LazyShareable(T value) {
+        this.value = value;
+        this.decoded = true;
+    }
+
+    /**
+     * Creates a LazyShareable that has already been decoded.
+     *
+     * @param value
+     *         the value
+     * @param <T>
+     *         the type of Shareable
+     *
+     * @return the decoded LazyShareable
+     */
+    @NonNull
+    public static <T extends Shareable> LazyShareable<T> of(T value) {
+        return new LazyShareable<T>(value);
+    }
+
+    /**
+     * Gets the value, decoding it on the first call. Fetching any bitmaps inside it may block, see {@link
+     * SharedParcel#readBitmap()}.
+     *
+     * @return the value, or null if its class cannot be found
+     */
+    public T get() {
+        if (!decoded) {
+            synchronized (this) {
+                if (!decoded) {
+                    value = decode(source, loader);
+                    source = null;
+                    loader = null;
+                    decoded = true;
+                }
+            }
+        }
+        return value;
+    }
+
+    private static <T extends Shareable> T decode(SharedParcel source, ClassLoader loader) {
+        GoogleApiClient apiClient = source.getApiClient();
+        ApiClientPool pool = ApiClientPool.getInstance();
+        boolean acquired = apiClient != null && pool.acquireIfShared(apiClient);
+        try {
+            return source.readShareable(loader);
+        } finally {
+            if (acquired) {
+                pool.release(apiClient);
+            }
+        }
+    }
+
+    /**
+     * Whether or not the value has been decoded.
+     *
+     * @return true if {@link #get()} will not decode
+     */
+    public boolean isDecoded() {
+        return decoded;
+    }
+}
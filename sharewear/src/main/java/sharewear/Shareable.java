@@ -22,6 +22,8 @@
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.DataMap;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class allows to share data more easily between app and wear. Any class that extends from this, must be present
  * in the common module! This class requires a Shareable.Creator CREATOR field:
@@ -39,6 +41,18 @@ public abstract class Shareable implements Parcelable {
      */
     public abstract int getVersion();
 
+    /**
+     * Returns the encoding used when this object is written to a {@link DataMap}. Override to return {@link
+     * SharedParcel#ENCODING_COMPACT} in order to pack all fields into a single DataMap entry, or {@link
+     * SharedParcel#ENCODING_SHARED_REFERENCES} to also write repeated strings and nested objects only once. Objects
+     * written with any encoding can always be read back.
+     *
+     * @return the DataMap encoding, {@link SharedParcel#ENCODING_DEFAULT} by default
+     */
+    public int getEncoding() {
+        return SharedParcel.ENCODING_DEFAULT;
+    }
+
     /**
      * Flatten this object into a {@link DataMap}.
      *
@@ -46,8 +60,25 @@ public abstract class Shareable implements Parcelable {
      *         The DataMap in which the object should be written.
      */
     public final void writeToDataMap(GoogleApiClient apiClient, DataMap dataMap) {
-        SharedParcel shared = new SharedParcel(apiClient, dataMap);
+        SharedParcel shared = new SharedParcel(apiClient, dataMap, getEncoding());
         writeToSharedParcel(shared, 0);
+        shared.finishWriting();
+    }
+
+    /**
+     * Flatten this object into a {@link ByteBuffer}, starting at the buffer's current position. The version is written
+     * ahead of the data so that it can be read back with {@link Creator#createFromByteBuffer(ByteBuffer)}.
+     *
+     * @param dest
+     *         The ByteBuffer in which the object should be written.
+     *
+     * @return the buffer holding the data. This is a new, larger buffer if {@code dest} was too small.
+     */
+    public final ByteBuffer writeToByteBuffer(ByteBuffer dest) {
+        SharedParcel shared = new SharedParcel(dest);
+        shared.writeInt(getVersion());
+        writeToSharedParcel(shared, 0);
+        return shared.getByteBuffer();
     }
 
     /**
@@ -101,6 +132,22 @@ public final T createFromDataMap(GoogleApiClient apiClient, DataMap source, int
             return createFromSharedParcel(in, version);
         }
 
+        /**
+         * Create a new instance of the Shareable class, instantiating it from the given ByteBuffer whose data had
+         * previously been written by {@link Shareable#writeToByteBuffer(ByteBuffer)}. The data is read in place,
+         * starting at the buffer's current position.
+         *
+         * @param source
+         *         The ByteBuffer to read the object's data from.
+         *
+         * @return Returns a new instance of the Shareable class.
+         */
+        public final T createFromByteBuffer(ByteBuffer source) {
+            SharedParcel in = new SharedParcel(source);
+            int version = in.readInt();
+            return createFromSharedParcel(in, version);
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -33,6 +33,9 @@
  *     public static final Shareable.Creator&lt;T&gt; CREATOR = new Shareable.Creator&lt;&gt;(){ ... };
  *     </code>
  * </pre>
+ * Fields that are expensive to decode and not always needed, such as nested objects and images shown only on a detail
+ * screen, can be read with {@link SharedParcel#readLazyShareable(ClassLoader)} and {@link
+ * SharedParcel#readLazyBitmap()} so that they are only decoded or fetched when first accessed.
  */
 public abstract class SharedData extends Shareable {
     /**
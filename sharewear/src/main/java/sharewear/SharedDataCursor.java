@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataItemBuffer;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import sharewear.internal.WearLog;
+
+/**
+ * Iterates over the {@link SharedData} in a {@link DataItemBuffer}, decoding one item at a time straight from the
+ * buffer instead of freezing and decoding all of them up front. Items that cannot be decoded are skipped. The buffer is
+ * released once iteration reaches the end or the cursor is closed, so close cursors that are abandoned early.
+ * <p/>
+ * Cursors are not thread safe.
+ */
+public final class SharedDataCursor<T extends SharedData> implements Iterator<T>, Iterable<T>, Closeable {
+    private static final String TAG = SharedDataCursor.class.getSimpleName();
+
+    private final GoogleApiClient apiClient;
+    private final DataItemBuffer buffer;
+    private final String pathPrefix;
+    private final int count;
+    private int position;
+    private T next;
+    private boolean closed;
+
+    /**
+     * Creates a cursor over a buffer. The cursor takes ownership of the buffer. A buffer from a failed request is
+     * released right away and yields no items.
+     *
+     * @param apiClient
+     *         the GoogleApiClient used to read assets while decoding
+     * @param buffer
+     *         the buffer to iterate over
+     */
+    public SharedDataCursor(@NonNull GoogleApiClient apiClient, @NonNull DataItemBuffer buffer) {
+        this(apiClient, buffer, null);
+    }
+
+    /**
+     * Creates a cursor over the items in a buffer whose path starts with a prefix. Other items are skipped without
+     * being decoded. The cursor takes ownership of the buffer.
+     *
+     * @param apiClient
+     *         the GoogleApiClient used to read assets while decoding
+     * @param buffer
+     *         the buffer to iterate over
+     * @param pathPrefix
+     *         the path prefix, or null for every item
+     */
+    SharedDataCursor(@NonNull GoogleApiClient apiClient, @NonNull DataItemBuffer buffer,
+            @Nullable String pathPrefix) {
+        this.apiClient = apiClient;
+        this.buffer = buffer;
+        this.pathPrefix = pathPrefix;
+        if (buffer.getStatus().isSuccess()) {
+            int matching = buffer.getCount();
+            if (pathPrefix != null) {
+                matching = 0;
+                for (int i = 0; i < buffer.getCount(); i++) {
+                    if (matches(i)) {
+                        matching++;
+                    }
+                }
+            }
+            this.count = matching;
+        } else {
+            this.count = 0;
+            close();
+        }
+    }
+
+    /**
+     * Gets the number of data items in the buffer, or under the path prefix. Items that fail to decode are counted but
+     * never returned.
+     *
+     * @return the number of data items
+     */
+    public int getCount() {
+        return count;
+    }
+
+    @Override public boolean hasNext() {
+        while (next == null && !closed) {
+            if (position >= buffer.getCount()) {
+                close();
+                break;
+            }
+            if (!matches(position)) {
+                position++;
+                continue;
+            }
+            try {
+                next = SharedData.fromDataItem(apiClient, buffer.get(position++), SharedData.class.getClassLoader());
+            } catch (RuntimeException e) {
+                WearLog.e(TAG, "error decoding data item " + (position - 1), e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T item = next;
+        next = null;
+        return item;
+    }
+
+    /**
+     * Decodes up to the next {@code pageSize} items.
+     *
+     * @param pageSize
+     *         the maximum number of items to decode
+     *
+     * @return the next page, empty once the cursor is exhausted
+     */
+    @NonNull
+    public List<T> nextPage(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        List<T> page = new ArrayList<T>(Math.min(pageSize, Math.max(count - position, 0) + 1));
+        while (page.size() < pageSize && hasNext()) {
+            page.add(next());
+        }
+        return page;
+    }
+
+    /**
+     * Decodes all remaining items.
+     *
+     * @return the remaining items
+     */
+    @NonNull
+    public List<T> toList() {
+        List<T> items = new ArrayList<T>(Math.max(count - position, 0) + (next == null ? 0 : 1));
+        while (hasNext()) {
+            items.add(next());
+        }
+        return items;
+    }
+
+    private boolean matches(int index) {
+        if (pathPrefix == null) {
+            return true;
+        }
+        String path = buffer.get(index).getUri().getPath();
+        return path != null && path.startsWith(pathPrefix);
+    }
+
+    @Override public void remove() {
+        throw new UnsupportedOperationException("data items cannot be removed through a cursor");
+    }
+
+    /**
+     * Returns this cursor. It can only be iterated once.
+     */
+    @NonNull
+    @Override public Iterator<T> iterator() {
+        return this;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Releases the buffer. Items already returned stay valid. An item decoded by {@link #hasNext()} but not yet
+     * returned is still returned by {@link #next()}.
+     */
+    @Override public void close() {
+        if (!closed) {
+            closed = true;
+            buffer.release();
+        }
+    }
+}
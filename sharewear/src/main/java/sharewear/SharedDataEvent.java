@@ -32,6 +32,9 @@
 public final class SharedDataEvent {
     private final GoogleApiClient mApiClient;
     private final DataEvent mDataEvent;
+    // the last decoded item and the class loader it was decoded with
+    private SharedData mSharedData;
+    private ClassLoader mSharedDataLoader;
 
     private SharedDataEvent(@NonNull GoogleApiClient apiClient, @NonNull DataEvent dataEvent) {
         this.mApiClient = apiClient;
@@ -123,7 +126,8 @@ public <T extends SharedData> T getSharedData() {
     }
 
     /**
-     * Creates a {@link SharedData} item from the {@link com.google.android.gms.wearable.DataMap}.
+     * Creates a {@link SharedData} item from the {@link com.google.android.gms.wearable.DataMap}. The item is decoded
+     * once and the same instance is returned to every caller using the same class loader.
      *
      * @param classLoader
      *         the class loader
@@ -132,8 +136,13 @@ public <T extends SharedData> T getSharedData() {
      *
      * @return the shared data item
      */
-    public <T extends SharedData> T getSharedData(ClassLoader classLoader) {
-        return SharedData.fromDataItem(mApiClient, getDataItem(), classLoader);
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends SharedData> T getSharedData(ClassLoader classLoader) {
+        if (mSharedData == null || mSharedDataLoader != classLoader) {
+            mSharedData = SharedData.fromDataItem(mApiClient, getDataItem(), classLoader);
+            mSharedDataLoader = classLoader;
+        }
+        return (T) mSharedData;
     }
 
     @Override
@@ -25,37 +25,183 @@
 import com.google.android.gms.wearable.DataMap;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import sharewear.internal.ByteReader;
+import sharewear.internal.ByteWriter;
+import sharewear.internal.Compressor;
 import sharewear.internal.WearLog;
+import sharewear.util.BitmapEncoder;
+import sharewear.util.CachingBitmapEncoder;
 import sharewear.util.ImageUtils;
 
 public final class SharedParcel {
     private static final String TAG = SharedParcel.class.getSimpleName();
     private static final String KEY_PREFIX = "SharedParcel-";
+    private static final String KEY_BLOB = KEY_PREFIX + "Blob";
+    private static final String KEY_ASSET_PREFIX = KEY_PREFIX + "Asset-";
+    private static final String KEY_COMPRESSION = KEY_PREFIX + "Compression";
+    private static final String KEY_ITEMS = KEY_PREFIX + "Items";
+    private static final String KEY_KEYS = KEY_PREFIX + "Keys";
+    private static final String KEY_ENCODING = KEY_PREFIX + "Encoding";
 
-    // Cache of previously looked up CREATOR.createFromSharedParcel() methods for
-    // particular classes.  Keys are the names of the classes, values are
-    // Method objects.
-    private static final HashMap<ClassLoader, HashMap<String, Shareable.Creator>> sCreators
-            = new HashMap<ClassLoader, HashMap<String, Shareable.Creator>>();
+    /**
+     * Default DataMap encoding. Every field is written to its own DataMap key.
+     */
+    public static final int ENCODING_DEFAULT = 0;
+
+    /**
+     * Compact DataMap encoding. All fields, including nested Shareable objects, are packed into a single varint
+     * encoded byte array stored under one DataMap key. Bitmaps are still sent as Assets. The byte array is deflated
+     * when it is larger than the threshold set with {@link Sharewear#setCompressionThreshold(int)}.
+     */
+    public static final int ENCODING_COMPACT = 0x1;
+
+    /**
+     * Shared reference encoding, which implies {@link #ENCODING_COMPACT}. Each distinct string is written once and
+     * repeated strings refer back to it. A nested Shareable instance written more than once is also written once, and
+     * reading it back returns the same instance everywhere it was written. Reading a reference to an object that is
+     * still being read, as in a cycle, returns null. Because references count every string and object before them,
+     * a reader cannot skip a nested Shareable whose creator is missing or reads fewer fields than were written, and
+     * throws a {@link BadShareableException} instead. Use {@link #ENCODING_COMPACT} for data read by older versions.
+     */
+    public static final int ENCODING_SHARED_REFERENCES = 0x2;
+
+    private static final int MODE_PARCEL = 0;
+    private static final int MODE_DATA_MAP = 1;
+    private static final int MODE_BLOB = 2;
+    private static final int MODE_BUFFER = 3;
+
+    // Cache of previously looked up CREATOR fields for particular classes.
+    private static final CreatorCache sCreators = new CreatorCache();
+
+    // Registries of creators, usually generated at compile time. These are checked before using reflection.
+    private static final CopyOnWriteArrayList<CreatorRegistry> sRegistries
+            = new CopyOnWriteArrayList<CreatorRegistry>();
+
+    private static final int DEFAULT_BITMAP_CACHE_BYTES = 1024 * 1024;
+
+    @NonNull private static volatile BitmapEncoder sBitmapEncoder
+            = new CachingBitmapEncoder(BitmapEncoder.PNG, DEFAULT_BITMAP_CACHE_BYTES);
+
+    private static final int DEFAULT_ASSET_CACHE_BYTES = 4 * 1024 * 1024;
+
+    // Outgoing assets by content, so identical bitmaps and blobs share one Asset.
+    private static final AssetCache sAssets = new AssetCache(DEFAULT_ASSET_CACHE_BYTES);
 
     private GoogleApiClient apiClient;
     private DataMap dataMap;
     private int position;
-    private final boolean isParcel;
+    private int assetPosition;
+    private final int mode;
 
     private Parcel parcel;
 
+    private ByteWriter writer;
+    private ByteReader reader;
+
+    // string table and object back-references, only used with ENCODING_SHARED_REFERENCES
+    private Map<String, Integer> writtenStrings;
+    private Map<Shareable, Integer> writtenShareables;
+    private List<String> readStrings;
+    private List<Shareable> readShareables;
+
     public SharedParcel(@NonNull Parcel parcel) {
         this.parcel = parcel;
-        this.isParcel = true;
+        this.mode = MODE_PARCEL;
     }
 
+    /**
+     * Creates a SharedParcel backed by a DataMap. If the DataMap was written using {@link #ENCODING_COMPACT}, the
+     * compact data will be read automatically.
+     *
+     * @param apiClient
+     *         the api client
+     * @param dataMap
+     *         the data map
+     */
     public SharedParcel(@NonNull GoogleApiClient apiClient, @NonNull DataMap dataMap) {
         this.apiClient = apiClient;
         this.dataMap = dataMap;
-        this.isParcel = false;
+        byte[] blob = dataMap.getByteArray(KEY_BLOB);
+        if (blob != null) {
+            if (dataMap.getInt(KEY_COMPRESSION, Compressor.NONE) == Compressor.DEFLATE) {
+                blob = Compressor.decompress(blob, 0, blob.length);
+            }
+            this.reader = new ByteReader(blob);
+            this.mode = MODE_BLOB;
+            if ((dataMap.getInt(KEY_ENCODING, ENCODING_COMPACT) & ENCODING_SHARED_REFERENCES) != 0) {
+                this.readStrings = new ArrayList<String>();
+                this.readShareables = new ArrayList<Shareable>();
+            }
+        } else {
+            this.mode = MODE_DATA_MAP;
+        }
+    }
+
+    /**
+     * Creates a SharedParcel to write into a DataMap using a specified encoding.
+     *
+     * @param apiClient
+     *         the api client
+     * @param dataMap
+     *         the data map
+     * @param encoding
+     *         the encoding, {@link #ENCODING_DEFAULT}, {@link #ENCODING_COMPACT} or {@link
+     *         #ENCODING_SHARED_REFERENCES}
+     */
+    public SharedParcel(@NonNull GoogleApiClient apiClient, @NonNull DataMap dataMap, int encoding) {
+        this.apiClient = apiClient;
+        this.dataMap = dataMap;
+        if ((encoding & (ENCODING_COMPACT | ENCODING_SHARED_REFERENCES)) != 0) {
+            this.writer = new ByteWriter();
+            this.mode = MODE_BLOB;
+            if ((encoding & ENCODING_SHARED_REFERENCES) != 0) {
+                this.writtenStrings = new HashMap<String, Integer>();
+                this.writtenShareables = new IdentityHashMap<Shareable, Integer>();
+            }
+        } else {
+            this.mode = MODE_DATA_MAP;
+        }
+    }
+
+    /**
+     * Creates a SharedParcel backed by a {@link ByteBuffer}. Values are read from and written to the buffer starting
+     * at its current position, using the same compact encoding as {@link #ENCODING_COMPACT}. Bitmaps are written inline
+     * rather than as Assets, so this is suitable for message payloads. If the buffer is too small while writing, a
+     * larger buffer is allocated and can be retrieved with {@link #getByteBuffer()}. The buffer is switched to
+     * big-endian byte order, which the encoding always uses.
+     *
+     * @param buffer
+     *         the byte buffer
+     */
+    public SharedParcel(@NonNull ByteBuffer buffer) {
+        this.writer = new ByteWriter(buffer);
+        this.mode = MODE_BUFFER;
+    }
+
+    /**
+     * Creates a SharedParcel reading the same data as another, starting at its current position.
+     *
+     * @param source
+     *         the parcel to copy
+     */
+    private SharedParcel(@NonNull SharedParcel source) {
+        this.apiClient = source.apiClient;
+        this.dataMap = source.dataMap;
+        this.position = source.position;
+        this.mode = source.mode;
+        if (source.isCompact()) {
+            this.reader = new ByteReader(source.in().getBuffer().duplicate());
+        }
     }
 
     /**
@@ -64,7 +210,25 @@ public SharedParcel(@NonNull GoogleApiClient apiClient, @NonNull DataMap dataMap
      * @return True if the underlying data storage is a Parcel, false if it is a DataMap
      */
     public boolean isParcel() {
-        return isParcel;
+        return mode == MODE_PARCEL;
+    }
+
+    /**
+     * Whether or not the fields are packed into a single compact byte array.
+     *
+     * @return True if the fields are compact encoded, false otherwise
+     */
+    public boolean isCompact() {
+        return mode == MODE_BLOB || mode == MODE_BUFFER;
+    }
+
+    /**
+     * Whether or not the underlying data is a {@link ByteBuffer}.
+     *
+     * @return True if the underlying data storage is a ByteBuffer
+     */
+    public boolean isByteBuffer() {
+        return mode == MODE_BUFFER;
     }
 
     public Parcel getParcel() {
@@ -75,148 +239,1059 @@ public DataMap getDataMap() {
         return dataMap;
     }
 
+    /**
+     * Gets the underlying byte buffer. This may be a different buffer than the one passed into {@link
+     * #SharedParcel(ByteBuffer)} if it needed to grow while writing.
+     *
+     * @return the byte buffer, or null if this is not backed by a ByteBuffer
+     */
+    public ByteBuffer getByteBuffer() {
+        return mode == MODE_BUFFER ? writer.getBuffer() : null;
+    }
+
     public GoogleApiClient getApiClient() {
         return apiClient;
     }
 
     public boolean readBoolean() {
-        if (isParcel) {
-            return WearUtils.readBoolean(parcel);
-        } else {
-            return dataMap.getBoolean(key());
+        switch (mode) {
+            case MODE_PARCEL:
+                return WearUtils.readBoolean(parcel);
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return in().readBoolean();
+            default:
+                return dataMap.getBoolean(key());
         }
     }
 
     public void writeBoolean(boolean val) {
-        if (isParcel) {
-            WearUtils.writeBoolean(parcel, val);
-        } else {
-            dataMap.putBoolean(key(), val);
+        switch (mode) {
+            case MODE_PARCEL:
+                WearUtils.writeBoolean(parcel, val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writer.writeBoolean(val);
+                break;
+            default:
+                dataMap.putBoolean(key(), val);
+                break;
         }
     }
 
     public int readInt() {
-        if (isParcel) {
-            return parcel.readInt();
-        } else {
-            return dataMap.getInt(key());
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.readInt();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return in().readVarInt();
+            default:
+                return dataMap.getInt(key());
         }
     }
 
     public void writeInt(int val) {
-        if (isParcel) {
-            parcel.writeInt(val);
-        } else {
-            dataMap.putInt(key(), val);
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeInt(val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writer.writeVarInt(val);
+                break;
+            default:
+                dataMap.putInt(key(), val);
+                break;
         }
     }
 
     public long readLong() {
-        if (isParcel) {
-            return parcel.readLong();
-        } else {
-            return dataMap.getLong(key());
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.readLong();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return in().readVarLong();
+            default:
+                return dataMap.getLong(key());
         }
     }
 
     public void writeLong(long val) {
-        if (isParcel) {
-            parcel.writeLong(val);
-        } else {
-            dataMap.putLong(key(), val);
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeLong(val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writer.writeVarLong(val);
+                break;
+            default:
+                dataMap.putLong(key(), val);
+                break;
         }
     }
 
     public String readString() {
-        if (isParcel) {
-            return parcel.readString();
-        } else {
-            return dataMap.getString(key());
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.readString();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return readCompactString();
+            default:
+                return dataMap.getString(key());
         }
     }
 
     public void writeString(String val) {
-        if (isParcel) {
-            parcel.writeString(val);
-        } else {
-            dataMap.putString(key(), val);
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeString(val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writeCompactString(val);
+                break;
+            default:
+                dataMap.putString(key(), val);
+                break;
+        }
+    }
+
+    public int[] readIntArray() {
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.createIntArray();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return in().readIntArray();
+            default:
+                byte[] packed = dataMap.getByteArray(key());
+                return packed == null ? null : new ByteReader(packed).readIntArray();
+        }
+    }
+
+    public void writeIntArray(int[] val) {
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeIntArray(val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writer.writeIntArray(val);
+                break;
+            default:
+                dataMap.putByteArray(key(), val == null ? null : packIntArray(val));
+                break;
+        }
+    }
+
+    public long[] readLongArray() {
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.createLongArray();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return in().readLongArray();
+            default:
+                byte[] packed = dataMap.getByteArray(key());
+                return packed == null ? null : new ByteReader(packed).readLongArray();
+        }
+    }
+
+    public void writeLongArray(long[] val) {
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeLongArray(val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writer.writeLongArray(val);
+                break;
+            default:
+                dataMap.putByteArray(key(), val == null ? null : packLongArray(val));
+                break;
+        }
+    }
+
+    public float[] readFloatArray() {
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.createFloatArray();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return in().readFloatArray();
+            default:
+                byte[] packed = dataMap.getByteArray(key());
+                return packed == null ? null : new ByteReader(packed).readFloatArray();
+        }
+    }
+
+    public void writeFloatArray(float[] val) {
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeFloatArray(val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writer.writeFloatArray(val);
+                break;
+            default:
+                dataMap.putByteArray(key(), val == null ? null : packFloatArray(val));
+                break;
+        }
+    }
+
+    public double[] readDoubleArray() {
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.createDoubleArray();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return in().readDoubleArray();
+            default:
+                byte[] packed = dataMap.getByteArray(key());
+                return packed == null ? null : new ByteReader(packed).readDoubleArray();
+        }
+    }
+
+    public void writeDoubleArray(double[] val) {
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeDoubleArray(val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writer.writeDoubleArray(val);
+                break;
+            default:
+                dataMap.putByteArray(key(), val == null ? null : packDoubleArray(val));
+                break;
+        }
+    }
+
+    public byte[] readByteArray() {
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.createByteArray();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return in().readBytes();
+            default:
+                return dataMap.getByteArray(key());
+        }
+    }
+
+    public void writeByteArray(byte[] val) {
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeByteArray(val);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                writer.writeBytes(val);
+                break;
+            default:
+                dataMap.putByteArray(key(), val);
+                break;
         }
     }
 
     public Bitmap readBitmap() {
-        if (isParcel) {
-            return parcel.readParcelable(Bitmap.class.getClassLoader());
-        } else {
-            Asset asset = dataMap.getAsset(key());
-            if (asset != null) {
-                return ImageUtils.fromAsset(apiClient, asset);
-            }
-            return null;
+        return readBitmap(0, 0);
+    }
+
+    /**
+     * Reads a bitmap, downsampling it while it stays at least as large as the requested size. Bitmaps read from
+     * assets are cached in memory, see {@link ImageUtils#fromAsset(GoogleApiClient, Asset, int, int)}. Parcels always
+     * return the bitmap as it was written.
+     *
+     * @param reqWidth
+     *         the requested width, or 0 for the full width
+     * @param reqHeight
+     *         the requested height, or 0 for the full height
+     *
+     * @return the bitmap
+     */
+    public Bitmap readBitmap(int reqWidth, int reqHeight) {
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.readParcelable(Bitmap.class.getClassLoader());
+            case MODE_BUFFER:
+                return readInlineBitmap(reqWidth, reqHeight);
+        }
+        Asset asset = readAsset();
+        if (asset != null) {
+            return ImageUtils.fromAsset(apiClient, asset, reqWidth, reqHeight);
         }
+        return null;
+    }
+
+    /**
+     * Reads a bitmap without waiting for its asset to be fetched. The returned {@link AsyncBitmap} loads the asset on
+     * a background executor, so the rest of the object can be read and used before its images arrive. Bitmaps that
+     * are not stored as assets are returned already loaded.
+     *
+     * @return the bitmap or null if none was written
+     */
+    public AsyncBitmap readAsyncBitmap() {
+        return readAsyncBitmap(0, 0);
+    }
+
+    /**
+     * Reads a bitmap without waiting for its asset to be fetched, downsampling it while it stays at least as large as
+     * the requested size.
+     *
+     * @param reqWidth
+     *         the requested width, or 0 for the full width
+     * @param reqHeight
+     *         the requested height, or 0 for the full height
+     *
+     * @return the bitmap or null if none was written
+     *
+     * @see #readAsyncBitmap()
+     */
+    public AsyncBitmap readAsyncBitmap(int reqWidth, int reqHeight) {
+        if (mode == MODE_PARCEL || mode == MODE_BUFFER) {
+            Bitmap bitmap = readBitmap(reqWidth, reqHeight);
+            return bitmap == null ? null : AsyncBitmap.of(bitmap);
+        }
+        Asset asset = readAsset();
+        return asset == null ? null : AsyncBitmap.load(apiClient, asset, reqWidth, reqHeight);
+    }
+
+    /**
+     * Reads a bitmap that is only fetched when first accessed, for example by {@link AsyncBitmap#getAsync}. Unlike
+     * {@link #readAsyncBitmap()}, bitmaps that are never accessed are never fetched.
+     *
+     * @return the bitmap or null if none was written
+     */
+    public AsyncBitmap readLazyBitmap() {
+        return readLazyBitmap(0, 0);
+    }
+
+    /**
+     * Reads a bitmap that is only fetched when first accessed, downsampling it while it stays at least as large as the
+     * requested size.
+     *
+     * @param reqWidth
+     *         the requested width, or 0 for the full width
+     * @param reqHeight
+     *         the requested height, or 0 for the full height
+     *
+     * @return the bitmap or null if none was written
+     *
+     * @see #readLazyBitmap()
+     */
+    public AsyncBitmap readLazyBitmap(int reqWidth, int reqHeight) {
+        if (mode == MODE_PARCEL || mode == MODE_BUFFER) {
+            Bitmap bitmap = readBitmap(reqWidth, reqHeight);
+            return bitmap == null ? null : AsyncBitmap.of(bitmap);
+        }
+        Asset asset = readAsset();
+        return asset == null ? null : AsyncBitmap.defer(apiClient, asset, reqWidth, reqHeight);
+    }
+
+    /**
+     * Writes a bitmap that may still be loading, waiting for it to load first.
+     *
+     * @param val
+     *         the bitmap to write
+     * @param flags
+     *         the write flags
+     */
+    public void writeAsyncBitmap(AsyncBitmap val, int flags) {
+        writeBitmap(val == null ? null : val.await(), flags);
     }
 
     public void writeBitmap(Bitmap val, int flags) {
-        if (isParcel) {
-            parcel.writeParcelable(val, flags);
-        } else {
-            byte[] bytes = ImageUtils.toPngBytes(val);
-            Asset asset = Asset.createFromBytes(bytes);
-            dataMap.putAsset(key(), asset);
+        writeBitmap(val, flags, sBitmapEncoder);
+    }
+
+    /**
+     * Writes a bitmap using a specific encoder instead of the default one set with {@link
+     * Sharewear#setBitmapEncoder(BitmapEncoder)}. The encoder is not used when writing to a Parcel.
+     *
+     * @param val
+     *         the bitmap
+     * @param flags
+     *         the parcelable flags
+     * @param encoder
+     *         the encoder
+     */
+    public void writeBitmap(Bitmap val, int flags, @NonNull BitmapEncoder encoder) {
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeParcelable(val, flags);
+                break;
+            case MODE_BUFFER:
+                writer.writeBytes(val == null ? null : encoder.encode(val));
+                break;
+            default:
+                writeAsset(val == null ? null : createAsset(val, encoder));
+                break;
+        }
+    }
+
+    /**
+     * Reads an arbitrary byte payload written with {@link #writeBlob(byte[])}. When reading from a DataMap, this
+     * fetches the asset holding the payload and must not be called on the main thread.
+     *
+     * @return the payload
+     */
+    public byte[] readBlob() {
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.createByteArray();
+            case MODE_BUFFER:
+                return in().readBytes();
+        }
+        Asset asset = readAsset();
+        if (asset != null) {
+            return WearUtils.readAsset(apiClient, asset);
+        }
+        return null;
+    }
+
+    /**
+     * Writes an arbitrary byte payload. DataMaps store the payload as an {@link Asset}, which is shared with any other
+     * bitmap or blob with the same content written during this process. The payload is copied, so the array may be
+     * reused once this returns.
+     *
+     * @param val
+     *         the payload to write
+     */
+    public void writeBlob(byte[] val) {
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.writeByteArray(val);
+                break;
+            case MODE_BUFFER:
+                writer.writeBytes(val);
+                break;
+            default:
+                // the caller may reuse the array, so it is looked up by content and copied
+                writeAsset(val == null ? null : sAssets.get(val, false));
+                break;
         }
     }
 
     public <T extends Shareable> T readShareable(ClassLoader loader) {
-        if (isParcel) {
-            return parcel.readParcelable(loader);
-        } else {
-            DataMap shareableMap = dataMap.getDataMap(key());
-            Shareable.Creator<T> creator = readShareableCreator(shareableMap, loader);
-            if (creator != null) {
-                int storedVersion = readShareableVersion(shareableMap);
-                return creator.createFromDataMap(apiClient, shareableMap, storedVersion);
-            }
-            return null;
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.readParcelable(loader);
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return readCompactShareable(loader);
+            default:
+                return readNestedShareable(dataMap.getDataMap(key()), loader);
         }
     }
 
     public void writeShareable(Shareable val, int parcelableFlags) {
-        if (isParcel) {
+        if (mode == MODE_PARCEL) {
             parcel.writeParcelable(val, parcelableFlags);
+        } else if (mode == MODE_BLOB || mode == MODE_BUFFER) {
+            writeCompactShareable(val, parcelableFlags);
         } else {
             // Store in a new data map so that we only ever take up one key for the shareable object
-            DataMap shareableMap = null;
-            if (val != null) {
-                shareableMap = new DataMap();
+            dataMap.putDataMap(key(), val == null ? null : writeNestedShareable(val));
+        }
+    }
 
-                // write class name
-                String name = val.getClass().getName();
-                writeShareableName(name, shareableMap);
+    /**
+     * Reads a Shareable written with {@link #writeShareable(Shareable, int)} without decoding it. It is decoded the
+     * first time {@link LazyShareable#get()} is called. Parcels cannot be kept, so they are decoded right away.
+     *
+     * @param loader
+     *         the class loader
+     * @param <T>
+     *         the type of Shareable
+     *
+     * @return the lazy Shareable, or null if null was written
+     */
+    public <T extends Shareable> LazyShareable<T> readLazyShareable(ClassLoader loader) {
+        if (mode == MODE_PARCEL || readStrings != null) {
+            // parcels cannot be kept, and skipping would miss strings and objects that later references point to
+            T val = readShareable(loader);
+            return val == null ? null : LazyShareable.of(val);
+        }
+        SharedParcel source = new SharedParcel(this);
+        if (isCompact()) {
+            ByteReader in = in();
+            if (in.readString() == null) {
+                return null;
+            }
+            in.readVarInt();
+            in.skip(in.readFixedInt());
+        } else if (dataMap.getDataMap(key()) == null) {
+            return null;
+        }
+        return new LazyShareable<T>(source, loader);
+    }
 
-                // write data version
-                int version = val.getVersion();
-                writeShareableVersion(version, shareableMap);
+    public void writeLazyShareable(LazyShareable<?> val, int flags) {
+        writeShareable(val == null ? null : val.get(), flags);
+    }
 
-                // write shareable data
-                val.writeToDataMap(apiClient, shareableMap);
-            }
-            dataMap.putDataMap(key(), shareableMap);
+    /**
+     * Reads a list written with {@link #writeShareableList(List, int)}.
+     *
+     * @param loader
+     *         the class loader of the list elements
+     * @param <T>
+     *         the type of the list elements
+     *
+     * @return the list
+     */
+    public <T extends Shareable> List<T> readShareableList(ClassLoader loader) {
+        return readShareableCollection(null, loader);
+    }
+
+    /**
+     * Writes a list of Shareable objects. When every element has the same class, the class name and version are
+     * written once for the whole list, and the elements are read back with a single creator lookup.
+     *
+     * @param val
+     *         the list to write
+     * @param flags
+     *         the write flags
+     * @param <T>
+     *         the type of the list elements
+     */
+    public <T extends Shareable> void writeShareableList(List<T> val, int flags) {
+        writeShareableCollection(null, val, flags);
+    }
+
+    /**
+     * Reads a map written with {@link #writeShareableMap(Map, int)}, keeping the order of its entries.
+     *
+     * @param loader
+     *         the class loader of the map values
+     * @param <T>
+     *         the type of the map values
+     *
+     * @return the map
+     */
+    public <T extends Shareable> Map<String, T> readShareableMap(ClassLoader loader) {
+        List<String> keys = new ArrayList<String>();
+        List<T> values = readShareableCollection(keys, loader);
+        if (values == null) {
+            return null;
         }
+        Map<String, T> map = new LinkedHashMap<String, T>(values.size() * 4 / 3 + 1);
+        for (int i = 0; i < values.size(); i++) {
+            map.put(keys.get(i), values.get(i));
+        }
+        return map;
+    }
+
+    /**
+     * Writes a map of String keys to Shareable objects. Values are written the same way as with {@link
+     * #writeShareableList(List, int)}.
+     *
+     * @param val
+     *         the map to write
+     * @param flags
+     *         the write flags
+     * @param <T>
+     *         the type of the map values
+     */
+    public <T extends Shareable> void writeShareableMap(Map<String, T> val, int flags) {
+        if (val == null) {
+            writeShareableCollection(null, null, flags);
+            return;
+        }
+        List<String> keys = new ArrayList<String>(val.size());
+        List<T> values = new ArrayList<T>(val.size());
+        for (Map.Entry<String, T> entry : val.entrySet()) {
+            keys.add(entry.getKey());
+            values.add(entry.getValue());
+        }
+        writeShareableCollection(keys, values, flags);
     }
 
     public int dataPosition() {
-        if (isParcel) {
-            return parcel.dataPosition();
-        } else {
-            return position;
+        switch (mode) {
+            case MODE_PARCEL:
+                return parcel.dataPosition();
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                return writer != null ? writer.position() : reader.position();
+            default:
+                return position;
         }
     }
 
     public void setDataPosition(int position) {
-        if (isParcel) {
-            parcel.setDataPosition(position);
+        switch (mode) {
+            case MODE_PARCEL:
+                parcel.setDataPosition(position);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                if (writer != null) {
+                    writer.position(position);
+                } else {
+                    reader.position(position);
+                }
+                break;
+            default:
+                this.position = position;
+                break;
+        }
+    }
+
+    /**
+     * Stores the compact encoded bytes in the DataMap. Must be called after all fields have been written.
+     */
+    void finishWriting() {
+        if (mode == MODE_BLOB && writer != null) {
+            if (writtenStrings != null) {
+                dataMap.putInt(KEY_ENCODING, ENCODING_COMPACT | ENCODING_SHARED_REFERENCES);
+            }
+            ByteBuffer buffer = writer.getBuffer();
+            byte[] compressed = buffer.hasArray()
+                    ? Compressor.compress(buffer.array(), buffer.arrayOffset(), buffer.position(), 0)
+                    : null;
+            if (compressed != null) {
+                dataMap.putInt(KEY_COMPRESSION, Compressor.DEFLATE);
+                dataMap.putByteArray(KEY_BLOB, compressed);
+            } else {
+                dataMap.putByteArray(KEY_BLOB, writer.toByteArray());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Shareable> T readCompactShareable(ClassLoader loader) {
+        ByteReader in = in();
+        int index = -1;
+        if (readShareables != null) {
+            int tag = in.readUnsignedVarInt();
+            if (tag == 0) {
+                return null;
+            } else if (tag > 1) {
+                int reference = tag - 2;
+                if (reference >= readShareables.size()) {
+                    throw new BadShareableException("Invalid Shareable reference " + reference);
+                }
+                return (T) readShareables.get(reference);
+            }
+            // reserve the index, it is filled in once the object has been read
+            index = readShareables.size();
+            readShareables.add(null);
+        }
+        String name = readCompactString();
+        if (name == null) {
+            return null;
+        }
+        int storedVersion = in.readVarInt();
+        int length = in.readFixedInt();
+        int end = in.position() + length;
+        Shareable.Creator<T> creator = readShareableCreator(name, loader);
+        T val = null;
+        if (creator != null) {
+            val = creator.createFromSharedParcel(this, storedVersion);
+        }
+        // always move to the end, in case the creator is missing or did not read every field
+        skipTo(end, name);
+        if (index >= 0) {
+            readShareables.set(index, val);
+        }
+        return val;
+    }
+
+    /**
+     * Moves to the end of a Shareable whose creator is missing or did not read every field. With shared references,
+     * the strings and objects in the skipped bytes were added to the writer's reference tables but are never added to
+     * the reader's, so every later reference would resolve to the wrong value. Skipping is rejected instead.
+     *
+     * @param end
+     *         the position of the end of the Shareable
+     * @param name
+     *         the class name of the Shareable
+     */
+    private void skipTo(int end, String name) {
+        ByteReader in = in();
+        if (readStrings != null && in.position() != end) {
+            throw new BadShareableException("Cannot skip unread fields of " + name
+                    + " when reading shared references");
+        }
+        in.position(end);
+    }
+
+    private String readCompactString() {
+        return readStrings == null ? in().readString() : in().readString(readStrings);
+    }
+
+    private void writeCompactString(String val) {
+        if (writtenStrings == null) {
+            writer.writeString(val);
+        } else {
+            writer.writeString(val, writtenStrings);
+        }
+    }
+
+    private <T extends Shareable> T readNestedShareable(DataMap shareableMap, ClassLoader loader) {
+        Shareable.Creator<T> creator = readShareableCreator(shareableMap, loader);
+        if (creator != null) {
+            int storedVersion = readShareableVersion(shareableMap);
+            return creator.createFromDataMap(apiClient, shareableMap, storedVersion);
+        }
+        return null;
+    }
+
+    private DataMap writeNestedShareable(@NonNull Shareable val) {
+        DataMap shareableMap = new DataMap();
+        writeShareableName(val.getClass().getName(), shareableMap);
+        writeShareableVersion(val.getVersion(), shareableMap);
+        val.writeToDataMap(apiClient, shareableMap);
+        return shareableMap;
+    }
+
+    /**
+     * Reads the values of a Shareable list or map.
+     *
+     * @param keys
+     *         the list to add map keys to, or null when reading a list
+     * @param loader
+     *         the class loader of the values
+     *
+     * @return the values, or null if a null list or map was written
+     */
+    private <T extends Shareable> List<T> readShareableCollection(List<String> keys, ClassLoader loader) {
+        String name;
+        List<T> values;
+        switch (mode) {
+            case MODE_PARCEL: {
+                int size = parcel.readInt();
+                if (size < 0) {
+                    return null;
+                }
+                for (int i = 0; keys != null && i < size; i++) {
+                    keys.add(parcel.readString());
+                }
+                values = new ArrayList<T>(size);
+                if ((name = parcel.readString()) == null) {
+                    for (int i = 0; i < size; i++) {
+                        values.add(parcel.<T>readParcelable(loader));
+                    }
+                    return values;
+                }
+                int length = parcel.readInt();
+                int end = parcel.dataPosition() + length;
+                Shareable.Creator<T> creator = readShareableCreator(name, loader);
+                for (int i = 0; i < size; i++) {
+                    values.add(creator == null ? null : creator.createFromParcel(parcel));
+                }
+                // skip the values when the creator is missing, as readShareable does
+                parcel.setDataPosition(end);
+                return values;
+            }
+            case MODE_BLOB:
+            case MODE_BUFFER: {
+                ByteReader in = in();
+                int size = in.readUnsignedVarInt() - 1;
+                if (size < 0) {
+                    if (size < -1) {
+                        throw new BadShareableException("Invalid collection size " + (size & 0xffffffffL));
+                    }
+                    return null;
+                }
+                if (size > in.remaining()) {
+                    // every value takes at least one byte
+                    throw new BadShareableException("Collection size " + size + " exceeds the remaining "
+                            + in.remaining() + " bytes");
+                }
+                for (int i = 0; keys != null && i < size; i++) {
+                    keys.add(readCompactString());
+                }
+                values = new ArrayList<T>(size);
+                if ((name = readCompactString()) == null) {
+                    for (int i = 0; i < size; i++) {
+                        values.add(this.<T>readCompactShareable(loader));
+                    }
+                    return values;
+                }
+                int storedVersion = in.readVarInt();
+                Shareable.Creator<T> creator = readShareableCreator(name, loader);
+                for (int i = 0; i < size; i++) {
+                    int length = in().readFixedInt();
+                    int end = in().position() + length;
+                    values.add(creator == null ? null : creator.createFromSharedParcel(this, storedVersion));
+                    skipTo(end, name);
+                }
+                return values;
+            }
+            default: {
+                DataMap container = dataMap.getDataMap(key());
+                if (container == null) {
+                    return null;
+                }
+                if (keys != null) {
+                    List<String> storedKeys = container.getStringArrayList(KEY_KEYS);
+                    if (storedKeys != null) {
+                        keys.addAll(storedKeys);
+                    }
+                }
+                List<DataMap> items = container.getDataMapArrayList(KEY_ITEMS);
+                int size = items == null ? 0 : items.size();
+                values = new ArrayList<T>(size);
+                if ((name = readShareableName(container)) == null) {
+                    for (int i = 0; i < size; i++) {
+                        values.add(this.<T>readNestedShareable(items.get(i), loader));
+                    }
+                    return values;
+                }
+                int storedVersion = readShareableVersion(container);
+                Shareable.Creator<T> creator = readShareableCreator(name, loader);
+                for (int i = 0; i < size; i++) {
+                    values.add(creator == null ? null
+                            : creator.createFromDataMap(apiClient, items.get(i), storedVersion));
+                }
+                return values;
+            }
+        }
+    }
+
+    /**
+     * Writes the values of a Shareable list or map, with the class name and version written only once if every value
+     * has the same class.
+     *
+     * @param keys
+     *         the map keys, or null when writing a list
+     * @param values
+     *         the values to write, or null to write a null list or map
+     * @param flags
+     *         the write flags
+     */
+    private <T extends Shareable> void writeShareableCollection(List<String> keys, Collection<T> values,
+            int flags) {
+        String name = values == null ? null : homogeneousName(values);
+        int version = name == null ? 0 : values.iterator().next().getVersion();
+        switch (mode) {
+            case MODE_PARCEL:
+                if (values == null) {
+                    parcel.writeInt(-1);
+                    break;
+                }
+                parcel.writeInt(values.size());
+                for (int i = 0; keys != null && i < keys.size(); i++) {
+                    parcel.writeString(keys.get(i));
+                }
+                parcel.writeString(name);
+                if (name == null) {
+                    for (T value : values) {
+                        parcel.writeParcelable(value, flags);
+                    }
+                    break;
+                }
+                // the length of all values, so a reader without the class can skip them
+                int lengthPosition = parcel.dataPosition();
+                parcel.writeInt(0);
+                for (T value : values) {
+                    value.writeToParcel(parcel, flags);
+                }
+                int end = parcel.dataPosition();
+                parcel.setDataPosition(lengthPosition);
+                parcel.writeInt(end - lengthPosition - 4);
+                parcel.setDataPosition(end);
+                break;
+            case MODE_BLOB:
+            case MODE_BUFFER:
+                if (values == null) {
+                    writer.writeUnsignedVarInt(0);
+                    break;
+                }
+                writer.writeUnsignedVarInt(values.size() + 1);
+                for (int i = 0; keys != null && i < keys.size(); i++) {
+                    writeCompactString(keys.get(i));
+                }
+                writeCompactString(name);
+                if (name != null) {
+                    writer.writeVarInt(version);
+                }
+                for (T value : values) {
+                    if (name == null) {
+                        writeCompactShareable(value, flags);
+                    } else {
+                        int mark = writer.beginLength();
+                        value.writeToSharedParcel(this, flags);
+                        writer.endLength(mark);
+                    }
+                }
+                break;
+            default:
+                DataMap container = null;
+                if (values != null) {
+                    container = new DataMap();
+                    if (keys != null) {
+                        container.putStringArrayList(KEY_KEYS, new ArrayList<String>(keys));
+                    }
+                    if (name != null) {
+                        writeShareableName(name, container);
+                        writeShareableVersion(version, container);
+                    }
+                    ArrayList<DataMap> items = new ArrayList<DataMap>(values.size());
+                    for (T value : values) {
+                        if (name != null) {
+                            DataMap item = new DataMap();
+                            value.writeToDataMap(apiClient, item);
+                            items.add(item);
+                        } else {
+                            // an empty map reads back as null
+                            items.add(value == null ? new DataMap() : writeNestedShareable(value));
+                        }
+                    }
+                    container.putDataMapArrayList(KEY_ITEMS, items);
+                }
+                dataMap.putDataMap(key(), container);
+                break;
+        }
+    }
+
+    /**
+     * Gets the class name shared by all values.
+     *
+     * @param values
+     *         the values
+     *
+     * @return the class name, or null if the values are empty, contain null, or have different classes
+     */
+    private static String homogeneousName(Collection<? extends Shareable> values) {
+        Class<?> type = null;
+        for (Shareable value : values) {
+            if (value == null || (type != null && value.getClass() != type)) {
+                return null;
+            }
+            type = value.getClass();
+        }
+        return type == null ? null : type.getName();
+    }
+
+    private void writeAsset(Asset asset) {
+        if (mode == MODE_BLOB) {
+            if (asset == null) {
+                writer.writeUnsignedVarInt(0);
+            } else {
+                int index = assetPosition++;
+                dataMap.putAsset(assetKey(index), asset);
+                writer.writeUnsignedVarInt(index + 1);
+            }
         } else {
-            this.position = position;
+            dataMap.putAsset(key(), asset);
+        }
+    }
+
+    private Asset readAsset() {
+        if (mode == MODE_BLOB) {
+            // assets cannot be packed, so the blob only holds a reference to the asset key
+            int index = in().readUnsignedVarInt();
+            return index == 0 ? null : dataMap.getAsset(assetKey(index - 1));
         }
+        return dataMap.getAsset(key());
+    }
+
+    private Bitmap readInlineBitmap(int reqWidth, int reqHeight) {
+        ByteReader in = in();
+        int length = in.readUnsignedVarInt();
+        if (length == 0) {
+            return null;
+        }
+        length--;
+        ByteBuffer buffer = in.getBuffer();
+        if (buffer.hasArray()) {
+            // decode straight from the backing array without copying
+            int offset = buffer.arrayOffset() + buffer.position();
+            Bitmap bitmap = ImageUtils.toBitmap(buffer.array(), offset, length, reqWidth, reqHeight);
+            in.skip(length);
+            return bitmap;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return ImageUtils.toBitmap(bytes, 0, length, reqWidth, reqHeight);
+    }
+
+    /**
+     * Gets the reader for compact data. When both reading and writing the same buffer, the reader follows the
+     * writer's buffer in case it had to grow.
+     *
+     * @return the reader
+     */
+    private ByteReader in() {
+        if (writer != null) {
+            ByteBuffer buffer = writer.getBuffer();
+            if (reader == null || reader.getBuffer() != buffer) {
+                reader = new ByteReader(buffer);
+            }
+        }
+        return reader;
+    }
+
+    private void writeCompactShareable(Shareable val, int flags) {
+        if (writtenShareables != null) {
+            // 0 is null, 1 is a new object and anything larger refers to an object written before
+            Integer index = val == null ? null : writtenShareables.get(val);
+            if (val == null || index != null) {
+                writer.writeUnsignedVarInt(val == null ? 0 : index + 2);
+                return;
+            }
+            writtenShareables.put(val, writtenShareables.size());
+            writer.writeUnsignedVarInt(1);
+        } else if (val == null) {
+            writer.writeString(null);
+            return;
+        }
+        writeCompactString(val.getClass().getName());
+        writer.writeVarInt(val.getVersion());
+        int mark = writer.beginLength();
+        val.writeToSharedParcel(this, flags);
+        writer.endLength(mark);
+    }
+
+    private static byte[] packIntArray(int[] val) {
+        ByteWriter packer = new ByteWriter(ByteBuffer.allocate(5 + val.length * 5));
+        packer.writeIntArray(val);
+        return packer.toByteArray();
+    }
+
+    private static byte[] packLongArray(long[] val) {
+        ByteWriter packer = new ByteWriter(ByteBuffer.allocate(5 + val.length * 10));
+        packer.writeLongArray(val);
+        return packer.toByteArray();
+    }
+
+    private static byte[] packFloatArray(float[] val) {
+        ByteWriter packer = new ByteWriter(ByteBuffer.allocate(5 + val.length * 4));
+        packer.writeFloatArray(val);
+        return packer.toByteArray();
+    }
+
+    private static byte[] packDoubleArray(double[] val) {
+        ByteWriter packer = new ByteWriter(ByteBuffer.allocate(5 + val.length * 8));
+        packer.writeDoubleArray(val);
+        return packer.toByteArray();
+    }
+
+    private static Asset createAsset(Bitmap val, BitmapEncoder encoder) {
+        byte[] bytes = encoder.encode(val);
+        return sAssets.get(bytes, true);
+    }
+
+    static void setBitmapEncoder(@NonNull BitmapEncoder encoder) {
+        sBitmapEncoder = encoder;
+    }
+
+    static void setAssetCacheSize(int maxBytes) {
+        sAssets.setMaxBytes(maxBytes);
+    }
+
+    static void registerCreators(@NonNull CreatorRegistry registry) {
+        sRegistries.addIfAbsent(registry);
     }
 
     private String readShareableName(DataMap dataMap) {
@@ -247,6 +1322,10 @@ private String key() {
         return KEY_PREFIX + position++;
     }
 
+    private static String assetKey(int index) {
+        return KEY_ASSET_PREFIX + index;
+    }
+
     /**
      * Reads the CREATOR field from a Shareable object.
      *
@@ -264,50 +1343,68 @@ private <T extends Shareable> Shareable.Creator<T> readShareableCreator(DataMap
         if (dataMap == null || (name = readShareableName(dataMap)) == null) {
             return null;
         }
+        return readShareableCreator(name, loader);
+    }
+
+    /**
+     * Reads the CREATOR field from a Shareable class name.
+     *
+     * @param name
+     *         the class name
+     * @param loader
+     *         the class loader
+     * @param <T>
+     *         the type of Shareable
+     *
+     * @return the CREATOR field or null if the class cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Shareable> Shareable.Creator<T> readShareableCreator(@NonNull String name,
+            ClassLoader loader) {
+        for (CreatorRegistry registry : sRegistries) {
+            Shareable.Creator<?> registered = registry.getCreator(name);
+            if (registered != null) {
+                return (Shareable.Creator<T>) registered;
+            }
+        }
 
-        Shareable.Creator<T> creator;
-        synchronized (sCreators) {
-            HashMap<String, Shareable.Creator> map = sCreators.get(loader);
-            if (map == null) {
-                map = new HashMap<String, Shareable.Creator>();
-                sCreators.put(loader, map);
+        Shareable.Creator<T> creator = (Shareable.Creator<T>) sCreators.get(loader, name);
+        if (creator == null) {
+            // Not cached yet. Concurrent lookups of the same class may both get here, but they resolve the same
+            // static CREATOR, so the last one to be cached wins without harm.
+            try {
+                Class c = loader == null
+                        ? Class.forName(name)
+                        : Class.forName(name, true, loader);
+                Field f = c.getField("CREATOR");
+                creator = (Shareable.Creator) f.get(null);
+            } catch (IllegalAccessException e) {
+                WearLog.e(TAG, "Illegal access when unmarshalling: " + name, e);
+                throw new BadShareableException("IllegalAccessException when unmarshalling: " + name);
+            } catch (ClassNotFoundException e) {
+                WearLog.e(TAG, "Class not found when unmarshalling: " + name, e);
+                // Because data items are persisted across app versions, don't throw here
+                // The Shareable object could have changed names, so just return null
+                return null;
+            } catch (ClassCastException e) {
+                throw new BadShareableException("Shareable protocol requires a "
+                        + "Shareable.Creator object called "
+                        + " CREATOR on class " + name);
+            } catch (NoSuchFieldException e) {
+                throw new BadShareableException("Shareable protocol requires a "
+                        + "Shareable.Creator object called "
+                        + " CREATOR on class " + name);
+            } catch (NullPointerException e) {
+                throw new BadShareableException("Shareable protocol requires "
+                        + "the CREATOR object to be static on class " + name);
             }
-            creator = map.get(name);
             if (creator == null) {
-                try {
-                    Class c = loader == null
-                            ? Class.forName(name)
-                            : Class.forName(name, true, loader);
-                    Field f = c.getField("CREATOR");
-                    creator = (Shareable.Creator) f.get(null);
-                } catch (IllegalAccessException e) {
-                    WearLog.e(TAG, "Illegal access when unmarshalling: " + name, e);
-                    throw new BadShareableException("IllegalAccessException when unmarshalling: " + name);
-                } catch (ClassNotFoundException e) {
-                    WearLog.e(TAG, "Class not found when unmarshalling: " + name, e);
-                    // Because data items are persisted across app versions, don't throw here
-                    // The Shareable object could have changed names, so just return null
-                    return null;
-                } catch (ClassCastException e) {
-                    throw new BadShareableException("Shareable protocol requires a "
-                            + "Shareable.Creator object called "
-                            + " CREATOR on class " + name);
-                } catch (NoSuchFieldException e) {
-                    throw new BadShareableException("Shareable protocol requires a "
-                            + "Shareable.Creator object called "
-                            + " CREATOR on class " + name);
-                } catch (NullPointerException e) {
-                    throw new BadShareableException("Shareable protocol requires "
-                            + "the CREATOR object to be static on class " + name);
-                }
-                if (creator == null) {
-                    throw new BadShareableException("Shareable protocol requires a "
-                            + "Shareable.Creator object called "
-                            + " CREATOR on class " + name);
-                }
-
-                map.put(name, creator);
+                throw new BadShareableException("Shareable protocol requires a "
+                        + "Shareable.Creator object called "
+                        + " CREATOR on class " + name);
             }
+
+            sCreators.put(loader, name, creator);
         }
 
         return creator;
@@ -20,8 +20,17 @@
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.concurrent.ExecutorService;
+
 import sharewear.cache.NodeCache;
+import sharewear.cache.DataPathIndex;
+import sharewear.cache.SharedDataCache;
+import sharewear.internal.ApiClientPool;
+import sharewear.internal.Compressor;
+import sharewear.internal.WearExecutors;
 import sharewear.internal.WearLog;
+import sharewear.util.BitmapEncoder;
+import sharewear.util.CachingBitmapEncoder;
 import sharewear.util.GooglePlayServicesHelper;
 import sharewear.util.Logger;
 
@@ -63,6 +72,112 @@ public static void setGooglePlayServicesHelperErrorOptions(GooglePlayServicesHel
         GooglePlayServicesHelper.setErrorOptions(errorOptions);
     }
 
+    /**
+     * Registers a registry of Shareable creators, such as the {@code SharewearCreatorRegistry} generated for classes
+     * annotated with {@link sharewear.annotations.AutoShareable}. Registered creators are used instead of looking up
+     * the {@code CREATOR} field through reflection.
+     *
+     * @param registry
+     *         the creator registry
+     */
+    public static void registerCreators(@NonNull CreatorRegistry registry) {
+        SharedParcel.registerCreators(registry);
+    }
+
+    /**
+     * Sets the encoder used to convert bitmaps into bytes when they are written to a DataMap or message. The default
+     * encodes full resolution PNGs and caches up to 1MB of encoded bytes. Wrap custom encoders in a {@link
+     * CachingBitmapEncoder} so that sending the same bitmap again does not encode it again.
+     *
+     * @param encoder
+     *         the bitmap encoder
+     */
+    public static void setBitmapEncoder(@NonNull BitmapEncoder encoder) {
+        SharedParcel.setBitmapEncoder(encoder);
+    }
+
+    /**
+     * Enables caching of data read with {@link WearUtils#getData(com.google.android.gms.common.api.GoogleApiClient,
+     * String)}, holding up to a number of decoded items. Cached items are invalidated by data events, so only enable
+     * the cache in processes that receive them. See {@link SharedDataCache}.
+     *
+     * @param maxSize
+     *         the maximum number of cached items, or 0 to disable the cache
+     */
+    public static void setDataCacheSize(int maxSize) {
+        SharedDataCache.getInstance().setMaxSize(maxSize);
+    }
+
+    /**
+     * Enables indexing of the data item paths seen in prefix queries and data events, holding up to a number of paths,
+     * so that {@link WearUtils#getDataWithPrefix(com.google.android.gms.common.api.GoogleApiClient, String)} can skip
+     * querying prefixes known to be empty. The index is kept up to date by data events, so only enable it in processes
+     * that receive them. See {@link DataPathIndex}.
+     *
+     * @param maxSize
+     *         the maximum number of indexed paths, or 0 to disable the index
+     */
+    public static void setDataPathIndexSize(int maxSize) {
+        DataPathIndex.getInstance().setMaxSize(maxSize);
+    }
+
+    /**
+     * Sets the executor that runs the asynchronous calls in {@link WearUtils}, such as {@link
+     * WearUtils#getDataAsync(com.google.android.gms.common.api.GoogleApiClient, String, CallOptions)}. The default is
+     * a small pool owned by this library, separate from {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR}.
+     *
+     * @param executor
+     *         the executor, or null to restore the default
+     */
+    public static void setDataExecutor(@Nullable ExecutorService executor) {
+        WearExecutors.setData(executor);
+    }
+
+    /**
+     * Sets how long the shared {@code GoogleApiClient} used by the Sharewear services and {@link WearHandlerManager}
+     * stays connected after it was last used. Defaults to 30 seconds.
+     *
+     * @param idleTimeoutMs
+     *         the timeout in milliseconds, or 0 to disconnect right away
+     */
+    public static void setApiClientIdleTimeout(long idleTimeoutMs) {
+        ApiClientPool.getInstance().setIdleTimeout(idleTimeoutMs);
+    }
+
+    /**
+     * Sets the maximum total size of outgoing asset contents kept so that identical bitmaps and blobs are hashed once
+     * and share a single {@link com.google.android.gms.wearable.Asset}. Defaults to 4MB.
+     *
+     * @param maxBytes
+     *         the maximum size in bytes, or 0 to disable sharing
+     */
+    public static void setAssetCacheSize(int maxBytes) {
+        SharedParcel.setAssetCacheSize(maxBytes);
+    }
+
+    /**
+     * Sets the size in bytes above which compact encoded data and {@link sharewear.events.SharedMessageParams} are
+     * deflated before being sent. Defaults to 1024 bytes. A negative threshold disables compression. Compressed data
+     * is always detected and decompressed when read, regardless of this setting.
+     *
+     * @param thresholdBytes
+     *         the compression threshold
+     */
+    public static void setCompressionThreshold(int thresholdBytes) {
+        Compressor.setThreshold(thresholdBytes);
+    }
+
+    /**
+     * Sets a preset dictionary to improve compression of small payloads that share common strings. The app and wear
+     * modules must set the same dictionary, otherwise compressed data cannot be read.
+     *
+     * @param dictionary
+     *         the dictionary or null for none
+     */
+    public static void setCompressionDictionary(@Nullable byte[] dictionary) {
+        Compressor.setDictionary(dictionary);
+    }
+
     /**
      * Registers a group of handlers for wear communication events.
      *
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.Releasable;
+import com.google.android.gms.common.api.Result;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import sharewear.internal.WearExecutors;
+import sharewear.internal.WearLog;
+import sharewear.util.Callback;
+
+/**
+ * The result of an asynchronous call in {@link WearUtils}. Calls run on the {@link WearExecutors#data()} executor.
+ * Cancelling a call cancels the Play Services request it is waiting on, and a deadline set with {@link
+ * CallOptions#withTimeout(long, TimeUnit)} bounds every such wait.
+ */
+public final class WearFuture<T> implements Future<T> {
+    private static final String TAG = WearFuture.class.getSimpleName();
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private static final ThreadLocal<WearFuture<?>> sCurrent = new ThreadLocal<WearFuture<?>>();
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final Executor callbackExecutor;
+    private final long deadlineNanos;
+    private final List<Runnable> listeners = new ArrayList<Runnable>();
+    private final Set<Thread> runners = new HashSet<Thread>();
+    private final Set<PendingResult<?>> pendingResults = new HashSet<PendingResult<?>>();
+
+    private volatile int state = PENDING;
+    private T value;
+    private Throwable failure;
+
+    WearFuture(@NonNull CallOptions options) {
+        this.callbackExecutor = options.getCallbackExecutor();
+        long timeout = options.getTimeoutNanos();
+        // 0 means no deadline, so avoid landing on it by accident
+        this.deadlineNanos = timeout == 0 ? 0 : (System.nanoTime() + timeout) | 1;
+    }
+
+    /**
+     * Runs a callable on the data executor.
+     *
+     * @param callable
+     *         the work to run
+     * @param options
+     *         the call options
+     *
+     * @return the future result
+     */
+    @NonNull
+    static <T> WearFuture<T> submit(@NonNull final Callable<T> callable, @NonNull CallOptions options) {
+        final WearFuture<T> future = new WearFuture<T>(options);
+        future.execute(new Runnable() {
+            @Override public void run() {
+                T result;
+                try {
+                    result = callable.call();
+                } catch (DeadlineExceededException e) {
+                    future.setFailure(new TimeoutException("deadline exceeded"));
+                    return;
+                } catch (Exception e) {
+                    future.setFailure(e);
+                    return;
+                }
+                future.set(result);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for a Play Services request, bounded by the deadline of the call running on this thread. Without a
+     * current call this is the same as {@link PendingResult#await()}.
+     *
+     * @param pendingResult
+     *         the request
+     *
+     * @return the result
+     *
+     * @throws CancellationException
+     *         if the current call was cancelled
+     * @throws DeadlineExceededException
+     *         if the current call's deadline passed
+     */
+    @NonNull
+    static <R extends Result> R await(@NonNull PendingResult<R> pendingResult) {
+        WearFuture<?> current = sCurrent.get();
+        return current == null ? pendingResult.await() : current.awaitResult(pendingResult);
+    }
+
+    /**
+     * Runs part of this call on the data executor. The task is skipped if the call has already finished, and is
+     * tracked so that cancelling the call interrupts it. Tasks that are rejected fail the call.
+     *
+     * @param runnable
+     *         the task to run
+     */
+    void execute(@NonNull final Runnable runnable) {
+        try {
+            WearExecutors.execute(new Runnable() {
+                @Override public void run() {
+                    if (!enter()) {
+                        return;
+                    }
+                    try {
+                        runnable.run();
+                    } finally {
+                        exit();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            setFailure(e);
+        }
+    }
+
+    boolean set(@Nullable T value) {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            this.value = value;
+            state = SUCCEEDED;
+        }
+        finish();
+        return true;
+    }
+
+    boolean setFailure(@NonNull Throwable failure) {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            this.failure = failure;
+            state = FAILED;
+        }
+        WearLog.e(TAG, "call failed", failure);
+        finish();
+        return true;
+    }
+
+    /**
+     * Delivers the result to a callback on the executor from the {@link CallOptions}, the main thread by default.
+     * Failed and cancelled calls deliver null. Callbacks added after the call finishes are delivered right away.
+     *
+     * @param callback
+     *         the callback to receive the result
+     *
+     * @return this future
+     */
+    @NonNull
+    public WearFuture<T> addCallback(@NonNull Callback<? super T> callback) {
+        return addCallback(callback, callbackExecutor);
+    }
+
+    /**
+     * Delivers the result to a callback on an executor. Failed and cancelled calls deliver null.
+     *
+     * @param callback
+     *         the callback to receive the result
+     * @param executor
+     *         the executor to deliver on
+     *
+     * @return this future
+     */
+    @NonNull
+    public WearFuture<T> addCallback(@NonNull final Callback<? super T> callback, @NonNull final Executor executor) {
+        Runnable listener = new Runnable() {
+            @Override public void run() {
+                executor.execute(new Runnable() {
+                    @Override public void run() {
+                        callback.onResult(state == SUCCEEDED ? value : null);
+                    }
+                });
+            }
+        };
+        synchronized (this) {
+            if (state == PENDING) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        listener.run();
+        return this;
+    }
+
+    /**
+     * Gets why the call failed.
+     *
+     * @return the failure, or null if the call has not failed
+     */
+    @Nullable
+    public synchronized Throwable getFailure() {
+        return failure;
+    }
+
+    @Override public boolean cancel(boolean mayInterruptIfRunning) {
+        List<PendingResult<?>> requests;
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            state = CANCELLED;
+            requests = new ArrayList<PendingResult<?>>(pendingResults);
+            if (mayInterruptIfRunning) {
+                // under the lock, so exit() cannot clear the interrupt before it is delivered
+                for (Thread thread : runners) {
+                    thread.interrupt();
+                }
+            }
+        }
+        for (PendingResult<?> request : requests) {
+            request.cancel();
+        }
+        finish();
+        return true;
+    }
+
+    @Override public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override public boolean isDone() {
+        return state != PENDING;
+    }
+
+    @Override public T get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getDone();
+    }
+
+    @Override public T get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getDone();
+    }
+
+    private synchronized T getDone() throws ExecutionException {
+        switch (state) {
+            case SUCCEEDED:
+                return value;
+            case FAILED:
+                throw new ExecutionException(failure);
+            default:
+                throw new CancellationException();
+        }
+    }
+
+    private void finish() {
+        List<Runnable> pending;
+        synchronized (this) {
+            pending = new ArrayList<Runnable>(listeners);
+            listeners.clear();
+        }
+        latch.countDown();
+        for (Runnable listener : pending) {
+            listener.run();
+        }
+    }
+
+    private boolean enter() {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            runners.add(Thread.currentThread());
+        }
+        sCurrent.set(this);
+        return true;
+    }
+
+    private void exit() {
+        sCurrent.remove();
+        synchronized (this) {
+            runners.remove(Thread.currentThread());
+            // clear an interrupt from cancel() so it does not leak into the executor's next task
+            Thread.interrupted();
+        }
+    }
+
+    private <R extends Result> R awaitResult(PendingResult<R> pendingResult) {
+        synchronized (this) {
+            if (state == CANCELLED) {
+                pendingResult.cancel();
+                throw new CancellationException();
+            }
+            pendingResults.add(pendingResult);
+        }
+        try {
+            if (deadlineNanos == 0) {
+                return pendingResult.await();
+            }
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                pendingResult.cancel();
+                throw new DeadlineExceededException();
+            }
+            R result = pendingResult.await(remaining, TimeUnit.NANOSECONDS);
+            if (!result.getStatus().isSuccess() && deadlineNanos - System.nanoTime() <= 0) {
+                if (result instanceof Releasable) {
+                    ((Releasable) result).release();
+                }
+                throw new DeadlineExceededException();
+            }
+            return result;
+        } finally {
+            synchronized (this) {
+                pendingResults.remove(pendingResult);
+            }
+        }
+    }
+
+    /**
+     * Thrown from {@link #await(PendingResult)} when the current call's deadline passes.
+     */
+    static final class DeadlineExceededException extends RuntimeException {
+        DeadlineExceededException() {
+            super("deadline exceeded");
+        }
+    }
+}
@@ -32,13 +32,21 @@
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import sharewear.cache.DataPathIndex;
+import sharewear.cache.SharedDataCache;
+import sharewear.cache.SnapshotStore;
+import sharewear.internal.ApiClientPool;
+import sharewear.internal.WearExecutors;
 import sharewear.internal.WearLog;
 import sharewear.util.GooglePlayServicesHelper;
 
@@ -58,6 +66,10 @@
     private volatile GoogleApiClient mApiClient;
     private volatile boolean mIsWearService;
     private final AtomicBoolean mConnected = new AtomicBoolean();
+    private final AtomicBoolean mAcquired = new AtomicBoolean();
+    // events waiting to be recorded in the snapshot store, in the order they arrived
+    private final ArrayDeque<SharedDataEvent> mPendingSnapshots = new ArrayDeque<SharedDataEvent>();
+    private boolean mRecordingSnapshots;
 
     /**
      * Creates a {@code WearHandlerManager}.
@@ -104,7 +116,8 @@ public synchronized void unregisterHandler(WearHandler handler) {
     }
 
     /**
-     * Initializes the {@code GoogleApiClient}.
+     * Initializes the {@code GoogleApiClient}. The client is shared with the Sharewear services through the {@link
+     * ApiClientPool}.
      *
      * @param context
      *         the context
@@ -113,9 +126,7 @@ public synchronized void init(Context context) {
         if (mApiClient == null) {
             mIsWearService = context instanceof WearService;
             mContext = context.getApplicationContext();
-            mApiClient = new GoogleApiClient.Builder(mContext)
-                    .addApi(Wearable.API)
-                    .build();
+            mApiClient = ApiClientPool.getInstance().getClient(mContext);
             initHandlers(mHandlers);
         }
     }
@@ -138,11 +149,14 @@ public void start() {
             Wearable.MessageApi.addListener(mApiClient, this);
             Wearable.DataApi.addListener(mApiClient, this);
         }
-        mApiClient.connect();
+        if (mAcquired.compareAndSet(false, true)) {
+            ApiClientPool.getInstance().acquire(mContext);
+        }
     }
 
     /**
-     * Stops listening to wear events and disconnectes from the associated {@code GoogleApiClient}.
+     * Stops listening to wear events and releases the associated {@code GoogleApiClient}, which disconnects once no
+     * service is using it.
      *
      * @throws IllegalStateException
      *         if {@link #init(Context)} has not been called and the {@code GoogleApiClient} is null
@@ -158,8 +172,12 @@ public void stop() {
         }
         mApiClient.unregisterConnectionCallbacks(this);
         mApiClient.unregisterConnectionFailedListener(this);
-        if (mApiClient.isConnected() || mApiClient.isConnecting()) {
-            mApiClient.disconnect();
+        if (mAcquired.compareAndSet(true, false)) {
+            ApiClientPool.getInstance().release(mApiClient);
+        }
+        if (mAddApiListeners) {
+            // data events no longer keep the index up to date
+            DataPathIndex.getInstance().clear();
         }
         mConnected.set(false);
     }
@@ -183,6 +201,8 @@ public void onDataChanged(DataEventBuffer dataEvents) {
         final List<DataEvent> events = FreezableUtils.freezeIterable(dataEvents);
         dataEvents.release();
         WearLog.i(TAG, "onDataChanged: %s", events);
+        DataPathIndex.getInstance().onDataChanged(events);
+        SharedDataCache.getInstance().onDataChanged(events);
 
         boolean connected = isConnected();
         if (!connected) {
@@ -191,10 +211,16 @@ public void onDataChanged(DataEventBuffer dataEvents) {
         }
         WearLog.i(TAG, "onDataChanged: connected? %s", String.valueOf(connected));
 
+        SnapshotStore snapshots = SnapshotStore.getInstance();
+        List<SharedDataEvent> snapshotEvents = new ArrayList<SharedDataEvent>();
+
         NEXT_EVENT:
         for (DataEvent dataEvent : events) {
             WearLog.d(TAG, "dataEvent: %s", dataEvent);
             SharedDataEvent sharedDataEvent = SharedDataEvent.from(mApiClient, dataEvent);
+            if (snapshots != null && snapshots.isSubscribed(sharedDataEvent.getPath())) {
+                snapshotEvents.add(sharedDataEvent);
+            }
             for (WearHandler handler : mHandlers) {
                 try {
                     if (handler.handleDataEvent(mContext, mApiClient, sharedDataEvent)) {
@@ -206,6 +232,9 @@ public void onDataChanged(DataEventBuffer dataEvents) {
                 }
             }
         }
+        if (!snapshotEvents.isEmpty()) {
+            recordSnapshots(snapshotEvents);
+        }
     }
 
     @Override
@@ -275,6 +304,67 @@ public void onConnectionFailed(ConnectionResult result) {
         }
     }
 
+    /**
+     * Records events in the snapshot store on the data executor, so that encoding the data does not hold up the
+     * listener thread. Events are recorded one at a time in the order they arrived. Handlers run first, so the data
+     * they decoded is reused.
+     *
+     * @param events
+     *         the events at subscribed paths
+     */
+    private void recordSnapshots(List<SharedDataEvent> events) {
+        synchronized (mPendingSnapshots) {
+            mPendingSnapshots.addAll(events);
+            if (mRecordingSnapshots) {
+                return;
+            }
+            mRecordingSnapshots = true;
+        }
+        try {
+            WearExecutors.execute(new Runnable() {
+                @Override public void run() {
+                    while (true) {
+                        SharedDataEvent event;
+                        synchronized (mPendingSnapshots) {
+                            event = mPendingSnapshots.poll();
+                            if (event == null) {
+                                mRecordingSnapshots = false;
+                                return;
+                            }
+                        }
+                        recordSnapshot(event);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            WearLog.e(TAG, "unable to record snapshots", e);
+            synchronized (mPendingSnapshots) {
+                mPendingSnapshots.clear();
+                mRecordingSnapshots = false;
+            }
+        }
+    }
+
+    private static void recordSnapshot(SharedDataEvent event) {
+        SnapshotStore snapshots = SnapshotStore.getInstance();
+        if (snapshots == null) {
+            return;
+        }
+        String path = event.getPath();
+        try {
+            if (event.getType() == DataEvent.TYPE_DELETED) {
+                snapshots.remove(path);
+            } else {
+                SharedData data = event.getSharedData();
+                if (data != null) {
+                    snapshots.put(data);
+                }
+            }
+        } catch (Exception e) {
+            WearLog.e(TAG, "error recording snapshot", e);
+        }
+    }
+
     private void initHandlers(Collection<WearHandler> wearHandlers) {
         if (mApiClient != null) {
             for (WearHandler wearHandler : wearHandlers) {
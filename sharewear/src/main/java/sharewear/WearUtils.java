@@ -17,7 +17,6 @@
 package sharewear;
 
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Looper;
 import android.os.Parcel;
@@ -26,7 +25,7 @@
 
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.common.data.FreezableUtils;
+import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataItemBuffer;
@@ -35,13 +34,31 @@
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import sharewear.cache.DataPathIndex;
+import sharewear.cache.SharedDataCache;
+import sharewear.cache.SnapshotStore;
 import sharewear.events.WearDataEvent;
+import sharewear.internal.WearExecutors;
 import sharewear.internal.WearLog;
 import sharewear.util.Callback;
 
@@ -190,7 +207,7 @@ public static Uri getUriForDataItem(String path) {
     public static String getLocalNodeId(GoogleApiClient client) {
         assertNotUiThread();
         NodeApi.GetLocalNodeResult nodeResult
-                = Wearable.NodeApi.getLocalNode(client).await();
+                = WearFuture.await(Wearable.NodeApi.getLocalNode(client));
         return nodeResult.getNode().getId();
     }
 
@@ -204,8 +221,8 @@ public static String getLocalNodeId(GoogleApiClient client) {
      */
     public static List<Node> getConnectedNodes(GoogleApiClient apiClient) {
         assertNotUiThread();
-        NodeApi.GetConnectedNodesResult nodesResult = Wearable.NodeApi.getConnectedNodes(apiClient)
-                .await();
+        NodeApi.GetConnectedNodesResult nodesResult
+                = WearFuture.await(Wearable.NodeApi.getConnectedNodes(apiClient));
         if (nodesResult.getStatus().isSuccess()) {
             return nodesResult.getNodes();
         }
@@ -251,6 +268,45 @@ public void onResult(NodeApi.GetConnectedNodesResult result) {
                 });
     }
 
+    /**
+     * Reads the contents of an {@link Asset} synchronously. Must NOT be called on the UI thread.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param asset
+     *         the asset to read
+     *
+     * @return the contents of the asset or null if it could not be read
+     */
+    @Nullable
+    public static byte[] readAsset(@NonNull GoogleApiClient apiClient, @NonNull Asset asset) {
+        assertNotUiThread();
+        DataApi.GetFdForAssetResult result = WearFuture.await(Wearable.DataApi.getFdForAsset(apiClient, asset));
+        try {
+            InputStream in = result.getInputStream();
+            if (in == null) {
+                WearLog.w(TAG, "Requested an unknown Asset.");
+                return null;
+            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 4096));
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } finally {
+                closeQuietly(in);
+            }
+        } catch (IOException e) {
+            WearLog.e(TAG, "error reading asset", e);
+            return null;
+        } finally {
+            result.release();
+        }
+    }
+
     /**
      * Gets the node id from this event.
      *
@@ -288,12 +344,24 @@ public static <T extends SharedData> T getData(@NonNull GoogleApiClient apiClien
             @NonNull String path) {
         assertNotUiThread();
         Uri uri = WearUtils.getUriForDataItem(path);
+        SharedDataCache cache = SharedDataCache.getInstance();
+        boolean cacheEnabled = cache.isEnabled();
+        if (cacheEnabled) {
+            T cached = cache.get(uri);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long generation = cache.getGeneration();
         WearLog.d(TAG, "getData uri: %s", uri);
-        DataItemBuffer buffer = Wearable.DataApi.getDataItems(apiClient, uri)
-                .await();
+        DataItemBuffer buffer = WearFuture.await(Wearable.DataApi.getDataItems(apiClient, uri));
         List<T> results = getDataFromDataItemBuffer(apiClient, buffer);
         if (results.size() > 0) {
-            return results.get(0);
+            T sharedData = results.get(0);
+            if (cacheEnabled) {
+                cache.put(uri, sharedData, generation);
+            }
+            return sharedData;
         }
         return null;
     }
@@ -304,76 +372,413 @@ public static <T extends SharedData> T getData(@NonNull GoogleApiClient apiClien
             @NonNull String path) {
         assertNotUiThread();
         Uri uri = WearUtils.getUriForDataItem(nodeId, path);
+        SharedDataCache cache = SharedDataCache.getInstance();
+        boolean cacheEnabled = cache.isEnabled();
+        if (cacheEnabled) {
+            T cached = cache.get(uri);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long generation = cache.getGeneration();
         WearLog.d(TAG, "getData uri: %s", uri);
-        DataApi.DataItemResult result = Wearable.DataApi.getDataItem(apiClient, uri)
-                .await();
-        return getDataFromResult(apiClient, result);
+        DataApi.DataItemResult result = WearFuture.await(Wearable.DataApi.getDataItem(apiClient, uri));
+        T sharedData = getDataFromResult(apiClient, result);
+        if (cacheEnabled && sharedData != null) {
+            cache.put(uri, sharedData, generation);
+        }
+        return sharedData;
     }
 
+    /**
+     * Gets all data items handled by a data event synchronously. Every item in the store is listed, and only the items
+     * whose path the event can handle are decoded, including paths outside its path prefix. Must NOT be called on the
+     * UI thread.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param dataEvent
+     *         the data event
+     *
+     * @return the data items
+     */
     @Nullable
     public static <T extends SharedData> List<T> getAllData(@NonNull GoogleApiClient apiClient,
             @NonNull WearDataEvent<T> dataEvent) {
+        return getDataWithPrefix(apiClient, dataEvent.getPathPrefix(), dataEvent);
+    }
+
+    /**
+     * Gets all data items whose path starts with a prefix synchronously, from every node. Prefixes known by the {@link
+     * DataPathIndex} to be empty return without a query. Must NOT be called on the UI thread.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param pathPrefix
+     *         the path prefix
+     *
+     * @return the data items
+     */
+    @NonNull
+    public static <T extends SharedData> List<T> getDataWithPrefix(@NonNull GoogleApiClient apiClient,
+            @NonNull String pathPrefix) {
+        return getDataWithPrefix(apiClient, pathPrefix, null);
+    }
+
+    /**
+     * Gets the data items whose path starts with a prefix, or that a data event can handle. Prefix filtering for
+     * {@code getDataItems} needs a newer play-services-wearable than the one this library builds against, so every
+     * item is listed and filtered by path before it is decoded.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param pathPrefix
+     *         the path prefix
+     * @param dataEvent
+     *         the data event whose paths to decode instead of the paths under the prefix, or null
+     *
+     * @return the data items
+     */
+    @NonNull
+    private static <T extends SharedData> List<T> getDataWithPrefix(@NonNull GoogleApiClient apiClient,
+            @NonNull String pathPrefix, @Nullable WearDataEvent<T> dataEvent) {
         assertNotUiThread();
-        DataItemBuffer dataItems = Wearable.DataApi.getDataItems(apiClient)
-                .await();
+        DataPathIndex index = DataPathIndex.getInstance();
+        // events may handle paths outside their prefix, so only plain prefix queries can skip the query
+        if (dataEvent == null && index.isIndexed(pathPrefix) && index.getUris(pathPrefix).isEmpty()) {
+            return new ArrayList<T>(0);
+        }
+
+        long generation = index.getGeneration();
+        DataItemBuffer dataItems = WearFuture.await(Wearable.DataApi.getDataItems(apiClient));
         try {
-            final List<T> returnItems = new ArrayList<T>();
-            if (dataItems.getStatus().isSuccess()) {
-                int count = dataItems.getCount();
-                for (int i = 0; i < count; i++) {
-                    DataItem dataItem = dataItems.get(i);
-                    Uri uri = dataItem.getUri();
-                    String path = uri.getPath();
-                    WearLog.d(TAG, "getAllData uri: %s", uri);
-                    WearLog.d(TAG, "getAllData path: %s", path);
-                    if (dataEvent.canHandlePath(path)) {
-                        WearLog.d(TAG, "getAllData dataEvent: %s can handle path: %s", dataEvent,
-                                path);
-                        T sharedData = SharedData.fromDataItem(apiClient, dataItem,
-                                SharedData.class.getClassLoader());
-                        if (sharedData != null) {
-                            returnItems.add(sharedData);
-                        }
-                    }
+            if (!dataItems.getStatus().isSuccess()) {
+                return new ArrayList<T>(0);
+            }
+            int count = dataItems.getCount();
+            WearLog.d(TAG, "getDataWithPrefix prefix: %s, count: %d", pathPrefix, count);
+            List<T> results = new ArrayList<T>();
+            List<Uri> uris = new ArrayList<Uri>();
+            for (int i = 0; i < count; i++) {
+                DataItem dataItem = dataItems.get(i);
+                Uri itemUri = dataItem.getUri();
+                String path = itemUri.getPath();
+                boolean underPrefix = path != null && path.startsWith(pathPrefix);
+                if (underPrefix) {
+                    uris.add(itemUri);
                 }
+                // filter before decoding
+                if (dataEvent == null ? !underPrefix : !dataEvent.canHandlePath(path)) {
+                    continue;
+                }
+                T sharedData = SharedData.fromDataItem(apiClient, dataItem, SharedData.class.getClassLoader());
+                if (sharedData != null) {
+                    results.add(sharedData);
+                }
+            }
+            index.index(pathPrefix, uris, generation);
+            SnapshotStore snapshots = SnapshotStore.getInstance();
+            if (dataEvent == null && snapshots != null && snapshots.isSubscribed(pathPrefix)) {
+                snapshots.reconcile(pathPrefix, results);
             }
-            return returnItems;
+            return results;
         } finally {
             dataItems.release();
         }
     }
 
-    public static <T extends SharedData> void getDataAsync(@NonNull final GoogleApiClient apiClient,
-            final @NonNull String path, @NonNull final Callback<T> callback) {
-        executeDataTask(callback, new Callable<T>() {
+    /**
+     * Gets a data item asynchronously. See {@link #getData(GoogleApiClient, String)}.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param path
+     *         the path of the data item
+     * @param callback
+     *         called on the main thread with the data item, or null if it could not be loaded
+     *
+     * @return the future result
+     */
+    @NonNull
+    public static <T extends SharedData> WearFuture<T> getDataAsync(@NonNull GoogleApiClient apiClient,
+            @NonNull String path, @NonNull Callback<T> callback) {
+        return WearUtils.<T>getDataAsync(apiClient, path, CallOptions.DEFAULT)
+                .addCallback(callback);
+    }
+
+    /**
+     * Gets a data item asynchronously. See {@link #getData(GoogleApiClient, String)}.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param path
+     *         the path of the data item
+     * @param options
+     *         the call options
+     *
+     * @return the future result
+     */
+    @NonNull
+    public static <T extends SharedData> WearFuture<T> getDataAsync(@NonNull final GoogleApiClient apiClient,
+            @NonNull final String path, @NonNull CallOptions options) {
+        return WearFuture.submit(new Callable<T>() {
             @Override
             public T call() throws Exception {
                 return getData(apiClient, path);
             }
-        });
+        }, options);
     }
 
-    public static <T extends SharedData> void getDataAsync(@NonNull final GoogleApiClient apiClient,
+    /**
+     * Gets a data item from a node asynchronously. See {@link #getData(GoogleApiClient, String, String)}.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param nodeId
+     *         the node id
+     * @param path
+     *         the path of the data item
+     * @param callback
+     *         called on the main thread with the data item, or null if it could not be loaded
+     *
+     * @return the future result
+     */
+    @NonNull
+    public static <T extends SharedData> WearFuture<T> getDataAsync(@NonNull GoogleApiClient apiClient,
+            @NonNull String nodeId, @NonNull String path,
+            @NonNull Callback<T> callback) {
+        return WearUtils.<T>getDataAsync(apiClient, nodeId, path, CallOptions.DEFAULT)
+                .addCallback(callback);
+    }
+
+    /**
+     * Gets a data item from a node asynchronously. See {@link #getData(GoogleApiClient, String, String)}.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param nodeId
+     *         the node id
+     * @param path
+     *         the path of the data item
+     * @param options
+     *         the call options
+     *
+     * @return the future result
+     */
+    @NonNull
+    public static <T extends SharedData> WearFuture<T> getDataAsync(@NonNull final GoogleApiClient apiClient,
             @NonNull final String nodeId, @NonNull final String path,
-            @NonNull final Callback<T> callback) {
-        executeDataTask(callback, new Callable<T>() {
+            @NonNull CallOptions options) {
+        return WearFuture.submit(new Callable<T>() {
             @Override
             public T call() throws Exception {
                 return getData(apiClient, nodeId, path);
             }
-        });
+        }, options);
     }
 
-    public static <T extends SharedData> void getAllDataAsync(
+    @NonNull
+    public static <T extends SharedData> WearFuture<List<T>> getAllDataAsync(
+            @NonNull GoogleApiClient apiClient,
+            @NonNull WearDataEvent<T> dataEvent,
+            @NonNull Callback<List<T>> callback) {
+        return getAllDataAsync(apiClient, dataEvent, CallOptions.DEFAULT)
+                .addCallback(callback);
+    }
+
+    @NonNull
+    public static <T extends SharedData> WearFuture<List<T>> getAllDataAsync(
             @NonNull final GoogleApiClient apiClient,
             @NonNull final WearDataEvent<T> dataEvent,
-            @NonNull final Callback<List<T>> callback) {
-        executeDataTask(callback, new Callable<List<T>>() {
+            @NonNull CallOptions options) {
+        return WearFuture.submit(new Callable<List<T>>() {
             @Override
             public List<T> call() throws Exception {
                 return getAllData(apiClient, dataEvent);
             }
-        });
+        }, options);
+    }
+
+    @NonNull
+    public static <T extends SharedData> WearFuture<List<T>> getDataWithPrefixAsync(
+            @NonNull GoogleApiClient apiClient,
+            @NonNull String pathPrefix,
+            @NonNull Callback<List<T>> callback) {
+        return WearUtils.<T>getDataWithPrefixAsync(apiClient, pathPrefix, CallOptions.DEFAULT)
+                .addCallback(callback);
+    }
+
+    @NonNull
+    public static <T extends SharedData> WearFuture<List<T>> getDataWithPrefixAsync(
+            @NonNull final GoogleApiClient apiClient,
+            @NonNull final String pathPrefix,
+            @NonNull CallOptions options) {
+        return WearFuture.submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return getDataWithPrefix(apiClient, pathPrefix);
+            }
+        }, options);
+    }
+
+    /**
+     * Queries the data items whose path starts with a prefix, from every node, without decoding them. Items are decoded
+     * one at a time as the cursor is iterated, which keeps memory flat for large data sets. Close the cursor if it is
+     * not iterated to the end. Must NOT be called on the UI thread.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param pathPrefix
+     *         the path prefix
+     *
+     * @return a cursor over the data items
+     */
+    @NonNull
+    public static <T extends SharedData> SharedDataCursor<T> queryDataWithPrefix(@NonNull GoogleApiClient apiClient,
+            @NonNull String pathPrefix) {
+        assertNotUiThread();
+        DataItemBuffer dataItems = WearFuture.await(Wearable.DataApi.getDataItems(apiClient));
+        WearLog.d(TAG, "queryDataWithPrefix prefix: %s", pathPrefix);
+        return new SharedDataCursor<T>(apiClient, dataItems, pathPrefix);
+    }
+
+    /**
+     * Gets the data items at several paths synchronously, from every node. The lookups run concurrently on the {@link
+     * WearExecutors#data()} executor, so the call takes about as long as the slowest one. Must NOT be called on the UI
+     * thread.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param paths
+     *         the paths to fetch
+     *
+     * @return the data items mapped by path, in the order of {@code paths}. Paths without data are absent.
+     */
+    @NonNull
+    public static <T extends SharedData> Map<String, T> getDataBatch(@NonNull final GoogleApiClient apiClient,
+            @NonNull Collection<String> paths) {
+        assertNotUiThread();
+        return new BatchFetch<String, T>(paths) {
+            @Override T fetch(String path) {
+                return getData(apiClient, path);
+            }
+        }.run();
+    }
+
+    /**
+     * Gets the data items at several uris synchronously. Uris with a node id are fetched from that node only, others
+     * from every node. The lookups run concurrently on the {@link WearExecutors#data()} executor. Must NOT be called on
+     * the UI thread.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param uris
+     *         the uris to fetch
+     *
+     * @return the data items mapped by uri, in the order of {@code uris}. Uris without data are absent.
+     */
+    @NonNull
+    public static <T extends SharedData> Map<Uri, T> getDataBatchForUris(@NonNull final GoogleApiClient apiClient,
+            @NonNull Collection<Uri> uris) {
+        assertNotUiThread();
+        return new BatchFetch<Uri, T>(uris) {
+            @Override T fetch(Uri uri) {
+                return getData(apiClient, uri);
+            }
+        }.run();
+    }
+
+    /**
+     * Gets the data items at several paths asynchronously. See {@link #getDataBatch(GoogleApiClient, Collection)}.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param paths
+     *         the paths to fetch
+     * @param callback
+     *         called once on the main thread with all of the results
+     *
+     * @return the future result
+     */
+    @NonNull
+    public static <T extends SharedData> WearFuture<Map<String, T>> getDataBatchAsync(
+            @NonNull GoogleApiClient apiClient,
+            @NonNull Collection<String> paths,
+            @NonNull Callback<Map<String, T>> callback) {
+        return WearUtils.<T>getDataBatchAsync(apiClient, paths, CallOptions.DEFAULT)
+                .addCallback(callback);
+    }
+
+    /**
+     * Gets the data items at several paths asynchronously. See {@link #getDataBatch(GoogleApiClient, Collection)}. A
+     * deadline in the options applies to the whole batch.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param paths
+     *         the paths to fetch
+     * @param options
+     *         the call options
+     *
+     * @return the future result
+     */
+    @NonNull
+    public static <T extends SharedData> WearFuture<Map<String, T>> getDataBatchAsync(
+            @NonNull final GoogleApiClient apiClient,
+            @NonNull Collection<String> paths,
+            @NonNull CallOptions options) {
+        return new BatchFetch<String, T>(paths) {
+            @Override T fetch(String path) {
+                return getData(apiClient, path);
+            }
+        }.runAsync(options);
+    }
+
+    /**
+     * Gets the data items at several uris asynchronously. See {@link #getDataBatchForUris(GoogleApiClient,
+     * Collection)}.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param uris
+     *         the uris to fetch
+     * @param callback
+     *         called once on the main thread with all of the results
+     *
+     * @return the future result
+     */
+    @NonNull
+    public static <T extends SharedData> WearFuture<Map<Uri, T>> getDataBatchForUrisAsync(
+            @NonNull GoogleApiClient apiClient,
+            @NonNull Collection<Uri> uris,
+            @NonNull Callback<Map<Uri, T>> callback) {
+        return WearUtils.<T>getDataBatchForUrisAsync(apiClient, uris, CallOptions.DEFAULT)
+                .addCallback(callback);
+    }
+
+    /**
+     * Gets the data items at several uris asynchronously. See {@link #getDataBatchForUris(GoogleApiClient,
+     * Collection)}. A deadline in the options applies to the whole batch.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param uris
+     *         the uris to fetch
+     * @param options
+     *         the call options
+     *
+     * @return the future result
+     */
+    @NonNull
+    public static <T extends SharedData> WearFuture<Map<Uri, T>> getDataBatchForUrisAsync(
+            @NonNull final GoogleApiClient apiClient,
+            @NonNull Collection<Uri> uris,
+            @NonNull CallOptions options) {
+        return new BatchFetch<Uri, T>(uris) {
+            @Override T fetch(Uri uri) {
+                return getData(apiClient, uri);
+            }
+        }.runAsync(options);
     }
 
     public static <T extends SharedData> T getDataFromResult(@NonNull GoogleApiClient apiClient,
@@ -393,55 +798,128 @@ public static <T extends SharedData> T getDataFromResult(@NonNull GoogleApiClien
     public static <T extends SharedData> List<T> getDataFromDataItemBuffer(
             final @NonNull GoogleApiClient apiClient,
             @NonNull DataItemBuffer dataItemBuffer) {
+        SharedDataCursor<T> cursor = new SharedDataCursor<T>(apiClient, dataItemBuffer);
         try {
-            if (dataItemBuffer.getStatus().isSuccess()) {
-                final List<DataItem> dataItems = FreezableUtils.freezeIterable(dataItemBuffer);
-                final List<T> returnItems = new ArrayList<T>(dataItems.size());
-                for (DataItem dataItem : dataItems) {
-                    T sharedData = SharedData.fromDataItem(apiClient, dataItem,
-                            SharedData.class.getClassLoader());
-                    if (sharedData != null) {
-                        returnItems.add(sharedData);
-                    }
-                }
-                return returnItems;
-            }
-            return Collections.emptyList();
+            return cursor.toList();
         } finally {
-            dataItemBuffer.release();
+            cursor.close();
         }
     }
 
-    private static <T> void executeDataTask(Callback<T> callback, Callable<T> callable) {
-        DataTask<T> task = new DataTask<T>(callable, callback);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-        } else {
-            task.execute();
+    private static <T extends SharedData> T getData(GoogleApiClient apiClient, Uri uri) {
+        String nodeId = uri.getAuthority();
+        if (nodeId == null || nodeId.length() == 0) {
+            return getData(apiClient, uri.getPath());
         }
+        return getData(apiClient, nodeId, uri.getPath());
     }
 
-    private static final class DataTask<T> extends AsyncTask<Object, Object, T> {
-        private final Callable<T> callable;
-        private final Callback<T> callback;
+    /**
+     * Fetches a set of keys concurrently on the data executor. A key that fails to load is logged and left out of the
+     * results rather than failing the whole batch, unless the batch was cancelled or ran past its deadline.
+     */
+    private static abstract class BatchFetch<K, T> {
+        private final List<K> keys;
+
+        BatchFetch(Collection<K> keys) {
+            this.keys = new ArrayList<K>(new LinkedHashSet<K>(keys));
+        }
+
+        abstract T fetch(K key);
+
+        Map<K, T> run() {
+            final int size = keys.size();
+            final Map<K, T> results = new LinkedHashMap<K, T>(size * 2);
+            if (size <= 1 || WearExecutors.isDataThread()) {
+                // waiting on the data executor from one of its own threads could deadlock, so run inline
+                for (K key : keys) {
+                    put(results, key, fetchQuietly(key));
+                }
+                return results;
+            }
+
+            List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(size - 1);
+            for (int i = 1; i < size; i++) {
+                final K key = keys.get(i);
+                FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+                    @Override public T call() throws Exception {
+                        return fetchQuietly(key);
+                    }
+                });
+                WearExecutors.execute(future);
+                futures.add(future);
+            }
+            // the calling thread would only wait, so let it take the first key
+            put(results, keys.get(0), fetchQuietly(keys.get(0)));
+            for (int i = 1; i < size; i++) {
+                try {
+                    put(results, keys.get(i), futures.get(i - 1).get());
+                } catch (InterruptedException e) {
+                    for (Future<T> future : futures) {
+                        future.cancel(true);
+                    }
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    WearLog.e(TAG, "error fetching " + keys.get(i), e.getCause());
+                }
+            }
+            return results;
+        }
+
+        @NonNull
+        WearFuture<Map<K, T>> runAsync(@NonNull CallOptions options) {
+            final WearFuture<Map<K, T>> future = new WearFuture<Map<K, T>>(options);
+            final int size = keys.size();
+            if (size == 0) {
+                future.set(new LinkedHashMap<K, T>(0));
+                return future;
+            }
 
-        protected DataTask(Callable<T> callable, Callback<T> callback) {
-            this.callable = callable;
-            this.callback = callback;
+            final AtomicReferenceArray<T> values = new AtomicReferenceArray<T>(size);
+            final AtomicInteger remaining = new AtomicInteger(size);
+            for (int i = 0; i < size; i++) {
+                final int index = i;
+                future.execute(new Runnable() {
+                    @Override public void run() {
+                        try {
+                            values.set(index, fetchQuietly(keys.get(index)));
+                        } catch (WearFuture.DeadlineExceededException e) {
+                            future.setFailure(new TimeoutException("deadline exceeded"));
+                            return;
+                        } catch (CancellationException e) {
+                            return;
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            Map<K, T> results = new LinkedHashMap<K, T>(size * 2);
+                            for (int j = 0; j < size; j++) {
+                                put(results, keys.get(j), values.get(j));
+                            }
+                            future.set(results);
+                        }
+                    }
+                });
+            }
+            return future;
         }
 
-        @Override
-        protected T doInBackground(Object... params) {
+        private T fetchQuietly(K key) {
             try {
-                return callable.call();
-            } catch (Exception e) {
+                return fetch(key);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (WearFuture.DeadlineExceededException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                WearLog.e(TAG, "error fetching " + key, e);
                 return null;
             }
         }
 
-        @Override
-        protected void onPostExecute(T t) {
-            callback.onResult(t);
+        private static <K, T> void put(Map<K, T> results, K key, T value) {
+            if (value != null) {
+                results.put(key, value);
+            }
         }
     }
 }
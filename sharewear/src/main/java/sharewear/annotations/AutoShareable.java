@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link sharewear.Shareable} class for which the sharewear-compiler annotation processor should generate a
+ * creator. For a class {@code Foo}, a {@code Foo$$Shareable} class is generated in the same package containing a
+ * {@code CREATOR} and a static {@code writeToSharedParcel} method that read and write every field annotated with {@link
+ * SharedField}, in declaration order. The class must have a non-private no-arg constructor:
+ * <pre>
+ *     <code>
+ *     &#64;AutoShareable(version = 1)
+ *     public class Foo extends Shareable {
+ *         public static final Shareable.Creator&lt;Foo&gt; CREATOR = Foo$$Shareable.CREATOR;
+ *
+ *         &#64;SharedField String name;
+ *
+ *         &#64;Override
+ *         public int getVersion() { return CREATOR.getVersion(); }
+ *
+ *         &#64;Override
+ *         public void writeToSharedParcel(SharedParcel dest, int flags) {
+ *             Foo$$Shareable.writeToSharedParcel(this, dest, flags);
+ *         }
+ *     }
+ *     </code>
+ * </pre>
+ * A {@code SharewearCreatorRegistry} is also generated for each package containing annotated classes. Register it with
+ * {@link sharewear.Sharewear#registerCreators(sharewear.CreatorRegistry)} so creators are found without reflection.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface AutoShareable {
+    /**
+     * The current version of the shareable class.
+     *
+     * @return the version
+     */
+    int version();
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of an {@link AutoShareable} class to be written to and read from a {@link sharewear.SharedParcel}. The
+ * field must not be private, static or final. Supported types are {@code boolean}, {@code int}, {@code long}, arrays of
+ * {@code byte}, {@code int}, {@code long}, {@code float} and {@code double}, {@link String}, {@link
+ * android.graphics.Bitmap}, {@link sharewear.AsyncBitmap}, subclasses of {@link sharewear.Shareable} and {@link
+ * sharewear.LazyShareable} of a Shareable subclass.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface SharedField {
+    /**
+     * The version in which this field was added. The field is only read when the stored version is at least this
+     * value. New fields should always be added after existing ones.
+     *
+     * @return the version the field was added
+     */
+    int since() default 0;
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.cache;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.wearable.DataEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Index of the data item paths known to exist, sorted so that all paths under a prefix can be found without a query.
+ * A prefix is indexed once every item under it has been fetched by a prefix query, and data events keep it up to date
+ * from then on. Until then, the index only knows about the items it has seen change. Like the {@link
+ * SharedDataCache}, the index must only be enabled in processes that receive data events, and it is cleared when the
+ * {@link sharewear.WearHandlerManager} delivering them stops. It holds at most a fixed number of paths, and is cleared
+ * when that is exceeded. Disabled until a size is set.
+ */
+public final class DataPathIndex {
+    private static final DataPathIndex INSTANCE = new DataPathIndex();
+
+    // path -> uris of the items at that path, one for each node that created one
+    private final TreeMap<String, Set<Uri>> paths = new TreeMap<String, Set<Uri>>();
+    private final Set<String> indexedPrefixes = new HashSet<String>();
+    private int maxSize;
+    private long generation;
+
+    private DataPathIndex() {}
+
+    public static DataPathIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the maximum number of indexed paths.
+     *
+     * @param maxSize
+     *         the maximum number of paths, or 0 to disable the index
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        if (maxSize <= 0 || paths.size() > maxSize) {
+            clear();
+        }
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Whether or not every item under a path prefix is known.
+     *
+     * @param pathPrefix
+     *         the path prefix
+     *
+     * @return true if {@link #getUris(String)} returns every item under the prefix
+     */
+    public synchronized boolean isIndexed(@NonNull String pathPrefix) {
+        for (String indexed : indexedPrefixes) {
+            if (pathPrefix.startsWith(indexed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the uris of the known items under a path prefix.
+     *
+     * @param pathPrefix
+     *         the path prefix
+     *
+     * @return the uris, sorted by path
+     */
+    @NonNull
+    public synchronized List<Uri> getUris(@NonNull String pathPrefix) {
+        List<Uri> uris = new ArrayList<Uri>();
+        for (Set<Uri> pathUris : prefixMap(pathPrefix).values()) {
+            uris.addAll(pathUris);
+        }
+        return uris;
+    }
+
+    /**
+     * Gets the current generation, which changes whenever data events are applied. Read it before starting a prefix
+     * query and pass it to {@link #index(String, Collection, long)}.
+     *
+     * @return the generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Replaces the known items under a path prefix with the result of a prefix query, and marks the prefix as indexed.
+     * If data events were applied while the query ran, the result may be outdated, so the items are only added.
+     *
+     * @param pathPrefix
+     *         the path prefix that was queried
+     * @param uris
+     *         the uris of every item under the prefix
+     * @param generation
+     *         the generation from before the query started
+     */
+    public synchronized void index(@NonNull String pathPrefix, @NonNull Collection<Uri> uris, long generation) {
+        if (maxSize <= 0) {
+            return;
+        }
+        boolean current = generation == this.generation;
+        if (current) {
+            prefixMap(pathPrefix).clear();
+        }
+        for (Uri uri : uris) {
+            add(uri);
+        }
+        if (current && paths.size() <= maxSize) {
+            indexedPrefixes.add(pathPrefix);
+        }
+        trimToSize();
+    }
+
+    /**
+     * Updates the index from data events.
+     *
+     * @param events
+     *         the data events
+     */
+    public synchronized void onDataChanged(@NonNull List<DataEvent> events) {
+        generation++;
+        if (maxSize <= 0) {
+            return;
+        }
+        for (DataEvent event : events) {
+            Uri uri = event.getDataItem().getUri();
+            if (event.getType() == DataEvent.TYPE_DELETED) {
+                remove(uri);
+            } else {
+                add(uri);
+            }
+        }
+        trimToSize();
+    }
+
+    public synchronized void clear() {
+        generation++;
+        paths.clear();
+        indexedPrefixes.clear();
+    }
+
+    private void trimToSize() {
+        if (paths.size() > maxSize) {
+            // dropping single paths would leave indexed prefixes incomplete, so start over
+            clear();
+        }
+    }
+
+    private void add(Uri uri) {
+        String path = uri.getPath();
+        if (path == null) {
+            return;
+        }
+        Set<Uri> uris = paths.get(path);
+        if (uris == null) {
+            uris = new HashSet<Uri>(2);
+            paths.put(path, uris);
+        }
+        uris.add(uri);
+    }
+
+    private void remove(Uri uri) {
+        String path = uri.getPath();
+        Set<Uri> uris = path == null ? null : paths.get(path);
+        if (uris == null) {
+            return;
+        }
+        if (uri.getAuthority() == null) {
+            // a delete without a node removes the items from every node
+            uris.clear();
+        } else {
+            uris.remove(uri);
+        }
+        if (uris.isEmpty()) {
+            paths.remove(path);
+        }
+    }
+
+    private SortedMap<String, Set<Uri>> prefixMap(String pathPrefix) {
+        // every path starting with the prefix sorts below the prefix followed by the largest char
+        return paths.subMap(pathPrefix, pathPrefix + Character.MAX_VALUE);
+    }
+}
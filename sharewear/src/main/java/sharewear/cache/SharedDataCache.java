@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.cache;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.wearable.DataEvent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sharewear.SharedData;
+
+/**
+ * Read-through cache of decoded {@link SharedData}, keyed by data item uri and holding at most a fixed number of
+ * entries. Entries are invalidated by data events, so the cache must only be enabled in processes that receive them,
+ * either through a {@link sharewear.WearService} or a started {@link sharewear.WearHandlerManager} that adds api
+ * listeners. Cached objects are shared between callers and must not be modified. Disabled until a size is set.
+ */
+public final class SharedDataCache {
+    private static final SharedDataCache INSTANCE = new SharedDataCache();
+
+    private final LinkedHashMap<Uri, SharedData> cache = new LinkedHashMap<Uri, SharedData>(16, 0.75f, true);
+    private int maxSize;
+    private long generation;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private SharedDataCache() {}
+
+    public static SharedDataCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the maximum number of cached items.
+     *
+     * @param maxSize
+     *         the maximum number of items, or 0 to disable the cache
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        trimToSize();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Gets a cached item, counting a hit or a miss.
+     *
+     * @param uri
+     *         the uri used to read the item
+     * @param <T>
+     *         the type of SharedData
+     *
+     * @return the cached item or null if it is not cached
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends SharedData> T get(@NonNull Uri uri) {
+        SharedData data = cache.get(uri);
+        if (data != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return (T) data;
+    }
+
+    /**
+     * Gets the current generation, which changes whenever entries are invalidated. Read it before reading an item and
+     * pass it to {@link #put(Uri, SharedData, long)}.
+     *
+     * @return the generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches an item, unless entries were invalidated since it was read, in which case it may already be outdated.
+     *
+     * @param uri
+     *         the uri used to read the item
+     * @param data
+     *         the item
+     * @param generation
+     *         the generation from before the item was read
+     */
+    public synchronized void put(@NonNull Uri uri, @NonNull SharedData data, long generation) {
+        if (maxSize > 0 && generation == this.generation) {
+            cache.put(uri, data);
+            trimToSize();
+        }
+    }
+
+    /**
+     * Invalidates the entries for every changed or deleted item.
+     *
+     * @param events
+     *         the data events
+     */
+    public synchronized void onDataChanged(@NonNull List<DataEvent> events) {
+        generation++;
+        if (cache.isEmpty()) {
+            return;
+        }
+        for (DataEvent event : events) {
+            invalidate(event.getDataItem().getUri().getPath());
+        }
+    }
+
+    /**
+     * Invalidates the entries for a path, whichever node they were read from.
+     *
+     * @param path
+     *         the path
+     */
+    public synchronized void invalidate(@Nullable String path) {
+        generation++;
+        for (Iterator<Uri> iterator = cache.keySet().iterator(); iterator.hasNext(); ) {
+            String cachedPath = iterator.next().getPath();
+            if (cachedPath == null ? path == null : cachedPath.equals(path)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        cache.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Uri, SharedData>> iterator = cache.entrySet().iterator();
+        while (cache.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+}
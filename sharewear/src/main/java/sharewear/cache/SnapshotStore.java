@@ -0,0 +1,471 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.zip.CRC32;
+
+import sharewear.BadShareableException;
+import sharewear.SharedData;
+import sharewear.SharedParcel;
+import sharewear.WearUtils;
+import sharewear.internal.ByteReader;
+import sharewear.internal.ByteWriter;
+import sharewear.internal.WearLog;
+
+/**
+ * On-disk snapshot of the last known {@link SharedData} for subscribed path prefixes, so an app can draw from local
+ * data on a cold start before the GoogleApiClient connects. Once installed with {@link #install(SnapshotStore)}, data
+ * is recorded whenever it arrives through a {@link sharewear.WearHandlerManager} or is put through the {@link
+ * sharewear.services.WearDataService}, and the snapshot is reconciled with the live store whenever {@link
+ * WearUtils#getDataWithPrefix(com.google.android.gms.common.api.GoogleApiClient, String)} runs.
+ * <p/>
+ * Records are appended to a single file and read through a memory mapping. Each record holds the path, a CRC32 and
+ * the data encoded like a message payload, with bitmaps inline. A torn record at the end of the file, left by a
+ * crash, is dropped when the file is opened. The file is compacted once most of it holds outdated records.
+ */
+public final class SnapshotStore {
+    private static final String TAG = SnapshotStore.class.getSimpleName();
+    private static final int HEADER_SIZE = 8;
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+    private static final byte OP_DELETE = 0;
+    private static final byte OP_PUT = 1;
+
+    private static volatile SnapshotStore sInstance;
+
+    private final File file;
+    private final Set<String> prefixes = new CopyOnWriteArraySet<String>();
+    // path -> position and length of the encoded data of its latest record, and the length of the whole record
+    private final TreeMap<String, long[]> entries = new TreeMap<String, long[]>();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long size;
+    private long liveSize;
+
+    private SnapshotStore(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens a snapshot store, creating the file if it does not exist.
+     *
+     * @param file
+     *         the snapshot file
+     *
+     * @return the store
+     *
+     * @throws IOException
+     *         if the file cannot be opened
+     */
+    @NonNull
+    public static SnapshotStore open(@NonNull File file) throws IOException {
+        SnapshotStore store = new SnapshotStore(file);
+        synchronized (store) {
+            store.load();
+            store.compactIfNeeded();
+        }
+        return store;
+    }
+
+    /**
+     * Installs the store that data is recorded into.
+     *
+     * @param store
+     *         the store, or null to stop recording
+     */
+    public static void install(@Nullable SnapshotStore store) {
+        sInstance = store;
+    }
+
+    /**
+     * Gets the installed store.
+     *
+     * @return the store, or null if none is installed
+     */
+    @Nullable
+    public static SnapshotStore getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records data for every path starting with a prefix.
+     *
+     * @param pathPrefix
+     *         the path prefix
+     */
+    public void subscribe(@NonNull String pathPrefix) {
+        prefixes.add(pathPrefix);
+    }
+
+    public void unsubscribe(@NonNull String pathPrefix) {
+        prefixes.remove(pathPrefix);
+    }
+
+    /**
+     * Whether or not data at a path, or every path under a prefix, is recorded.
+     *
+     * @param path
+     *         the path or path prefix
+     *
+     * @return true if recorded
+     */
+    public boolean isSubscribed(@Nullable String path) {
+        if (path != null) {
+            for (String prefix : prefixes) {
+                if (path.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the last recorded data at a path.
+     *
+     * @param path
+     *         the path
+     * @param classLoader
+     *         the class loader
+     * @param <T>
+     *         the type of SharedData
+     *
+     * @return the data or null if none is recorded
+     */
+    @Nullable
+    public <T extends SharedData> T get(@NonNull String path, ClassLoader classLoader) {
+        ByteBuffer data;
+        synchronized (this) {
+            data = slice(entries.get(path));
+        }
+        return data == null ? null : this.<T>decode(path, data, classLoader);
+    }
+
+    /**
+     * Reads the last recorded data at every path starting with a prefix, sorted by path.
+     *
+     * @param pathPrefix
+     *         the path prefix
+     * @param classLoader
+     *         the class loader
+     * @param <T>
+     *         the type of SharedData
+     *
+     * @return the data
+     */
+    @NonNull
+    public <T extends SharedData> List<T> getAll(@NonNull String pathPrefix, ClassLoader classLoader) {
+        List<String> paths;
+        List<ByteBuffer> datas;
+        synchronized (this) {
+            Map<String, long[]> matches = entries.subMap(pathPrefix, pathPrefix + Character.MAX_VALUE);
+            paths = new ArrayList<String>(matches.size());
+            datas = new ArrayList<ByteBuffer>(matches.size());
+            for (Map.Entry<String, long[]> entry : matches.entrySet()) {
+                ByteBuffer data = slice(entry.getValue());
+                if (data != null) {
+                    paths.add(entry.getKey());
+                    datas.add(data);
+                }
+            }
+        }
+        // decode outside the lock, the slices stay valid even if the file is compacted meanwhile
+        List<T> results = new ArrayList<T>(datas.size());
+        for (int i = 0; i < datas.size(); i++) {
+            T data = decode(paths.get(i), datas.get(i), classLoader);
+            if (data != null) {
+                results.add(data);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Records data at its path, if subscribed.
+     *
+     * @param data
+     *         the data
+     */
+    public void put(@NonNull SharedData data) {
+        String path = data.getPath();
+        if (!isSubscribed(path)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        SharedParcel parcel = new SharedParcel(buffer);
+        parcel.writeShareable(data, 0);
+        buffer = parcel.getByteBuffer();
+        buffer.flip();
+        synchronized (this) {
+            if (!isRecorded(path, buffer)) {
+                append(path, OP_PUT, buffer.array(), buffer.arrayOffset(), buffer.limit());
+            }
+        }
+    }
+
+    /**
+     * Removes the data recorded at a path.
+     *
+     * @param path
+     *         the path
+     */
+    public synchronized void remove(@NonNull String path) {
+        if (entries.containsKey(path)) {
+            append(path, OP_DELETE, new byte[0], 0, 0);
+        }
+    }
+
+    /**
+     * Replaces the data recorded under a path prefix with live data, removing paths that no longer exist.
+     *
+     * @param pathPrefix
+     *         the path prefix that was queried
+     * @param live
+     *         every data item under the prefix
+     */
+    public synchronized void reconcile(@NonNull String pathPrefix, @NonNull Collection<? extends SharedData> live) {
+        Set<String> stale = new HashSet<String>(
+                entries.subMap(pathPrefix, pathPrefix + Character.MAX_VALUE).keySet());
+        for (SharedData data : live) {
+            stale.remove(data.getPath());
+            put(data);
+        }
+        for (String path : stale) {
+            remove(path);
+        }
+    }
+
+    public synchronized void close() {
+        WearUtils.closeQuietly(raf);
+        raf = null;
+        channel = null;
+        mapped = null;
+    }
+
+    private ByteBuffer slice(long[] entry) {
+        if (entry == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = map().duplicate();
+            buffer.limit((int) (entry[0] + entry[1]));
+            buffer.position((int) entry[0]);
+            return buffer.slice();
+        } catch (IOException e) {
+            WearLog.e(TAG, "error reading snapshot", e);
+            return null;
+        }
+    }
+
+    private <T extends SharedData> T decode(String path, ByteBuffer data, ClassLoader classLoader) {
+        try {
+            return new SharedParcel(data).readShareable(classLoader);
+        } catch (RuntimeException e) {
+            // the class changed since it was recorded, or the record is corrupt
+            WearLog.e(TAG, "error decoding snapshot of " + path, e);
+        }
+        return null;
+    }
+
+    private boolean isRecorded(String path, ByteBuffer data) {
+        long[] entry = entries.get(path);
+        if (entry == null || entry[1] != data.remaining()) {
+            return false;
+        }
+        try {
+            ByteBuffer recorded = map().duplicate();
+            recorded.limit((int) (entry[0] + entry[1]));
+            recorded.position((int) entry[0]);
+            return recorded.equals(data);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        if (channel == null) {
+            throw new IOException("snapshot store is closed");
+        }
+        if (mapped == null || mapped.capacity() < size) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped;
+    }
+
+    private void append(String path, byte op, byte[] data, int offset, int length) {
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer record = encodeRecord(path, op, data, offset, length);
+        int recordLength = record.remaining();
+        try {
+            long position = size;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            // the data is at the end of the record
+            apply(path, op, size + recordLength - length, length, recordLength);
+            size = position;
+            compactIfNeeded();
+        } catch (IOException e) {
+            WearLog.e(TAG, "error writing snapshot", e);
+        }
+    }
+
+    private static ByteBuffer encodeRecord(String path, byte op, byte[] data, int offset, int length) {
+        ByteWriter body = new ByteWriter(ByteBuffer.allocate(path.length() + length + 16));
+        body.writeString(path);
+        body.writeByte(op);
+        body.writeRawBytes(data, offset, length);
+        ByteBuffer bodyBuffer = body.getBuffer();
+        int bodyLength = bodyBuffer.position();
+
+        CRC32 crc = new CRC32();
+        crc.update(bodyBuffer.array(), bodyBuffer.arrayOffset(), bodyLength);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        record.putInt(bodyLength);
+        record.putInt((int) crc.getValue());
+        record.put(bodyBuffer.array(), bodyBuffer.arrayOffset(), bodyLength);
+        record.flip();
+        return record;
+    }
+
+    private void apply(String path, byte op, long position, int length, int recordLength) {
+        long[] previous = op == OP_PUT
+                ? entries.put(path, new long[]{position, length, recordLength})
+                : entries.remove(path);
+        if (previous != null) {
+            liveSize -= previous[2];
+        }
+        if (op == OP_PUT) {
+            liveSize += recordLength;
+        }
+    }
+
+    private void load() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        size = channel.size();
+        if (size == 0) {
+            return;
+        }
+        ByteBuffer buffer = map().duplicate();
+        CRC32 crc = new CRC32();
+        long valid = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int bodyLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (bodyLength < 0 || bodyLength > buffer.remaining()) {
+                break;
+            }
+            byte[] body = new byte[bodyLength];
+            buffer.get(body);
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                ByteReader reader = new ByteReader(body);
+                String path = reader.readString();
+                byte op = reader.readByte();
+                if (path != null) {
+                    apply(path, op, valid + HEADER_SIZE + reader.position(), reader.remaining(),
+                            HEADER_SIZE + bodyLength);
+                }
+            } catch (BadShareableException e) {
+                break;
+            }
+            valid = buffer.position();
+        }
+        if (valid < size) {
+            WearLog.w(TAG, "dropping %d corrupt bytes at the end of the snapshot", size - valid);
+            mapped = null;
+            channel.truncate(valid);
+            size = valid;
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (size > MIN_COMPACT_SIZE && size > liveSize * 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the file with only the latest record for each path. The original file is only replaced once every
+     * record has been written and synced to the temporary file.
+     */
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel tempChannel = out.getChannel();
+            ByteBuffer buffer = map();
+            for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                long[] position = entry.getValue();
+                byte[] data = new byte[(int) position[1]];
+                ByteBuffer source = buffer.duplicate();
+                source.position((int) position[0]);
+                source.get(data);
+                ByteBuffer record = encodeRecord(entry.getKey(), OP_PUT, data, 0, data.length);
+                while (record.hasRemaining()) {
+                    tempChannel.write(record);
+                }
+            }
+            out.getFD().sync();
+            out.close();
+        } catch (IOException e) {
+            // keep the original file, the temporary one may be incomplete
+            WearUtils.closeQuietly(out);
+            if (!temp.delete()) {
+                WearLog.w(TAG, "could not delete %s", temp);
+            }
+            throw e;
+        }
+        close();
+        boolean renamed = temp.renameTo(file);
+        if (!renamed && !temp.delete()) {
+            WearLog.w(TAG, "could not delete %s", temp);
+        }
+        // reopen the compacted file, or the original one if it could not be replaced
+        entries.clear();
+        liveSize = 0;
+        load();
+        if (!renamed) {
+            throw new IOException("could not replace " + file);
+        }
+    }
+}
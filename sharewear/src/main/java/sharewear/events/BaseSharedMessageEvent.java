@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.events;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.wearable.MessageEvent;
+
+import sharewear.Shareable;
+
+/**
+ * A message event whose params are a {@link SharedMessageParams}. Uncompressed params are decoded directly from {@link
+ * MessageEvent#getData()} without copying.
+ */
+public abstract class BaseSharedMessageEvent<P extends SharedMessageParams>
+        extends BaseWearMessageEvent<P> {
+    private final Shareable.Creator<P> creator;
+
+    protected BaseSharedMessageEvent(@NonNull Shareable.Creator<P> creator) {
+        this.creator = creator;
+    }
+
+    @Override
+    public P parse(MessageEvent event) {
+        byte[] data;
+        if (event == null || (data = event.getData()) == null || data.length == 0) {
+            return null;
+        }
+        return creator.createFromByteBuffer(SharedMessageParams.wrapData(data));
+    }
+}
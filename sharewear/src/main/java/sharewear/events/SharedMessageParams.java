@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.events;
+
+import java.nio.ByteBuffer;
+
+import sharewear.Shareable;
+import sharewear.internal.Compressor;
+
+/**
+ * Message params that are written as a {@link Shareable}. The message data is encoded through a {@link
+ * sharewear.SharedParcel} backed by a ByteBuffer that is reused for every message sent on the same thread. Use with
+ * {@link BaseSharedMessageEvent} to parse the params on the receiving side. The data starts with a header byte
+ * recording whether the rest of it was compressed.
+ */
+public abstract class SharedMessageParams extends Shareable implements WearMessageEvent.Params {
+    private static final int INITIAL_CAPACITY = 512;
+
+    private static final ThreadLocal<ByteBuffer> sBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+    };
+
+    @Override
+    public final byte[] getData() {
+        ByteBuffer buffer = sBuffer.get();
+        buffer.clear();
+        buffer.put((byte) Compressor.NONE);
+        buffer = writeToByteBuffer(buffer);
+        // keep the buffer in case it had to grow
+        sBuffer.set(buffer);
+
+        int length = buffer.position() - 1;
+        byte[] data = Compressor.compress(buffer.array(), buffer.arrayOffset() + 1, length, 1);
+        if (data != null) {
+            data[0] = Compressor.DEFLATE;
+            return data;
+        }
+        data = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(data);
+        return data;
+    }
+
+    static ByteBuffer wrapData(byte[] data) {
+        if (data.length > 0 && data[0] == Compressor.DEFLATE) {
+            return ByteBuffer.wrap(Compressor.decompress(data, 1, data.length - 1));
+        }
+        return ByteBuffer.wrap(data, 1, data.length - 1);
+    }
+}
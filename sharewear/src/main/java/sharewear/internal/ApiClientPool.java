@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.internal;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide {@link Wearable#API} client shared by the Sharewear services and the {@link
+ * sharewear.WearHandlerManager}, so that back-to-back operations reuse one connection instead of connecting a new
+ * client each time. Users {@link #acquire(Context)} the client and {@link #release(GoogleApiClient)} it when done; once
+ * nothing holds it, the client stays connected for an idle timeout before disconnecting.
+ */
+public final class ApiClientPool {
+    private static final String TAG = ApiClientPool.class.getSimpleName();
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+
+    private static final ApiClientPool sInstance = new ApiClientPool();
+
+    private final Runnable idleDisconnect = new Runnable() {
+        @Override public void run() {
+            disconnectIfIdle();
+        }
+    };
+
+    private GoogleApiClient client;
+    private Handler handler;
+    private int refCount;
+    private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+    private ApiClientPool() {}
+
+    @NonNull
+    public static ApiClientPool getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Sets how long the client stays connected after it is last released.
+     *
+     * @param idleTimeoutMs
+     *         the timeout in milliseconds, or 0 to disconnect as soon as it is released
+     */
+    public synchronized void setIdleTimeout(long idleTimeoutMs) {
+        if (idleTimeoutMs < 0) {
+            throw new IllegalArgumentException("idle timeout must not be negative: " + idleTimeoutMs);
+        }
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Gets the shared client, creating it if needed, without connecting it or holding a reference.
+     *
+     * @param context
+     *         the context
+     *
+     * @return the shared client
+     */
+    @NonNull
+    public synchronized GoogleApiClient getClient(@NonNull Context context) {
+        if (client == null) {
+            client = new GoogleApiClient.Builder(context.getApplicationContext())
+                    .addApi(Wearable.API)
+                    .build();
+        }
+        return client;
+    }
+
+    /**
+     * Holds a reference to the shared client and starts connecting it if it is not connected. Callers still need to
+     * wait for the connection, with {@link GoogleApiClient#blockingConnect(long, java.util.concurrent.TimeUnit)} or
+     * connection callbacks.
+     *
+     * @param context
+     *         the context
+     *
+     * @return the shared client
+     */
+    @NonNull
+    public synchronized GoogleApiClient acquire(@NonNull Context context) {
+        GoogleApiClient client = getClient(context);
+        refCount++;
+        if (handler != null) {
+            handler.removeCallbacks(idleDisconnect);
+        }
+        if (!client.isConnected() && !client.isConnecting()) {
+            WearLog.d(TAG, "connecting shared client");
+            client.connect();
+        }
+        return client;
+    }
+
+    /**
+     * Holds a reference to the shared client only if it is already connected.
+     *
+     * @return the connected client, which must be released, or null if it is not connected
+     */
+    @Nullable
+    public synchronized GoogleApiClient acquireConnected() {
+        if (client == null || !client.isConnected()) {
+            return null;
+        }
+        refCount++;
+        if (handler != null) {
+            handler.removeCallbacks(idleDisconnect);
+        }
+        return client;
+    }
+
+    /**
+     * Holds a reference to a client if it is the shared client, reconnecting it if it was disconnected while idle.
+     * Objects that keep a client to load data later, such as {@link sharewear.AsyncBitmap} and {@link
+     * sharewear.LazyShareable}, hold it while loading so that it is connected and stays connected until they are
+     * done. Off the main thread, this blocks until the client has reconnected.
+     *
+     * @param client
+     *         the client to hold
+     *
+     * @return true if the client is the shared client and must be released, false if it belongs to the caller
+     */
+    public boolean acquireIfShared(@NonNull GoogleApiClient client) {
+        synchronized (this) {
+            if (client != this.client) {
+                return false;
+            }
+            refCount++;
+            if (handler != null) {
+                handler.removeCallbacks(idleDisconnect);
+            }
+            if (!client.isConnected() && !client.isConnecting()) {
+                WearLog.d(TAG, "reconnecting shared client");
+                client.connect();
+            }
+        }
+        if (!client.isConnected() && Looper.myLooper() != Looper.getMainLooper()) {
+            client.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Releases a reference from {@link #acquire(Context)}, {@link #acquireConnected()} or {@link
+     * #acquireIfShared(GoogleApiClient)}.
+     *
+     * @param client
+     *         the client that was acquired
+     */
+    public synchronized void release(@NonNull GoogleApiClient client) {
+        if (client != this.client || refCount == 0) {
+            throw new IllegalStateException("client was not acquired from this pool");
+        }
+        if (--refCount > 0) {
+            return;
+        }
+        if (idleTimeoutMs == 0) {
+            disconnectIfIdle();
+            return;
+        }
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        handler.postDelayed(idleDisconnect, idleTimeoutMs);
+    }
+
+    /**
+     * Gets the shared client if it is currently connected.
+     *
+     * @return the connected client, or null
+     */
+    @Nullable
+    public synchronized GoogleApiClient getConnectedClient() {
+        return client != null && client.isConnected() ? client : null;
+    }
+
+    private synchronized void disconnectIfIdle() {
+        if (refCount == 0 && client != null && (client.isConnected() || client.isConnecting())) {
+            WearLog.d(TAG, "disconnecting idle shared client");
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.internal;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import sharewear.BadShareableException;
+
+/**
+ * Reads values previously written by a {@link ByteWriter} directly from a {@link ByteBuffer}. Fixed width values are
+ * always read as big-endian, whatever the byte order of the buffer passed in.
+ */
+public final class ByteReader {
+    private final ByteBuffer buffer;
+
+    public ByteReader(@NonNull byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Creates a reader that reads from a buffer starting at its current position. The buffer is switched to
+     * big-endian byte order.
+     *
+     * @param buffer
+     *         the buffer to read from
+     */
+    public ByteReader(@NonNull ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    @NonNull
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int position() {
+        return buffer.position();
+    }
+
+    public void position(int position) {
+        buffer.position(position);
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public void skip(int length) {
+        if (length < 0) {
+            throw new BadShareableException("Invalid length " + length + " at position " + buffer.position());
+        }
+        require(length);
+        buffer.position(buffer.position() + length);
+    }
+
+    public byte readByte() {
+        require(1);
+        return buffer.get();
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public int readFixedInt() {
+        require(4);
+        return buffer.getInt();
+    }
+
+    public int readUnsignedVarInt() {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new BadShareableException("Malformed varint at position " + buffer.position());
+    }
+
+    public int readVarInt() {
+        int zigzag = readUnsignedVarInt();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    public long readVarLong() {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new BadShareableException("Malformed varlong at position " + buffer.position());
+    }
+
+    public byte[] readBytes() {
+        int length = readArrayLength(1);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public int[] readIntArray() {
+        int length = readArrayLength(1);
+        if (length < 0) {
+            return null;
+        }
+        int[] val = new int[length];
+        for (int i = 0; i < length; i++) {
+            val[i] = readVarInt();
+        }
+        return val;
+    }
+
+    public long[] readLongArray() {
+        int length = readArrayLength(1);
+        if (length < 0) {
+            return null;
+        }
+        long[] val = new long[length];
+        for (int i = 0; i < length; i++) {
+            val[i] = readVarLong();
+        }
+        return val;
+    }
+
+    public float[] readFloatArray() {
+        int length = readArrayLength(4);
+        if (length < 0) {
+            return null;
+        }
+        float[] val = new float[length];
+        buffer.asFloatBuffer().get(val);
+        skip(length * 4);
+        return val;
+    }
+
+    public double[] readDoubleArray() {
+        int length = readArrayLength(8);
+        if (length < 0) {
+            return null;
+        }
+        double[] val = new double[length];
+        buffer.asDoubleBuffer().get(val);
+        skip(length * 8);
+        return val;
+    }
+
+    public String readString() {
+        int length = readArrayLength(1);
+        if (length < 0) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            int start = buffer.arrayOffset() + buffer.position();
+            String val = new String(buffer.array(), start, length, ByteWriter.UTF_8);
+            skip(length);
+            return val;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, ByteWriter.UTF_8);
+    }
+
+    /**
+     * Reads a string written with {@link ByteWriter#writeString(String, java.util.Map)}.
+     *
+     * @param table
+     *         the strings read so far, in the order they were read
+     *
+     * @return the string
+     */
+    public String readString(@NonNull List<String> table) {
+        int tag = readUnsignedVarInt();
+        if (tag == 0) {
+            return null;
+        }
+        if ((tag & 1) == 0) {
+            int index = (tag >>> 1) - 1;
+            if (index >= table.size()) {
+                throw new BadShareableException("Invalid string reference " + index + " at position "
+                        + buffer.position());
+            }
+            return table.get(index);
+        }
+        int length = tag >>> 1;
+        if (length > buffer.remaining()) {
+            throw new BadShareableException("String length " + length + " exceeds remaining bytes at position "
+                    + buffer.position());
+        }
+        String val;
+        if (buffer.hasArray()) {
+            val = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, ByteWriter.UTF_8);
+            skip(length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            val = new String(bytes, ByteWriter.UTF_8);
+        }
+        table.add(val);
+        return val;
+    }
+
+    private void require(int count) {
+        if (buffer.remaining() < count) {
+            throw new BadShareableException("Unexpected end of data at position " + buffer.position());
+        }
+    }
+
+    /**
+     * Reads an array length written as length + 1, checking that the remaining bytes can hold the elements so a
+     * corrupt length cannot cause a huge allocation.
+     *
+     * @param minElementSize
+     *         the minimum number of bytes per element
+     *
+     * @return the length, or -1 for a null array
+     */
+    private int readArrayLength(int minElementSize) {
+        int length = readUnsignedVarInt() - 1;
+        if (length < -1 || (long) length * minElementSize > buffer.remaining()) {
+            throw new BadShareableException("Array length " + length + " exceeds remaining bytes at position "
+                    + buffer.position());
+        }
+        return length;
+    }
+}
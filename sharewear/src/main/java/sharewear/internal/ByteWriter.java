@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.internal;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Writes primitive values into a growable {@link ByteBuffer} using a compact varint encoding. Read the values back
+ * with a {@link ByteReader}. Fixed width values are always big-endian, whatever the byte order of the buffer passed
+ * in, so the encoding does not depend on the caller.
+ */
+public final class ByteWriter {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private ByteBuffer buffer;
+
+    public ByteWriter() {
+        this(ByteBuffer.allocate(DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Creates a writer that writes into a buffer starting at its current position. The buffer is switched to
+     * big-endian byte order.
+     *
+     * @param buffer
+     *         the buffer to write into
+     */
+    public ByteWriter(@NonNull ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Gets the underlying buffer. This may not be the same buffer passed into the constructor if the writer needed to
+     * grow.
+     *
+     * @return the underlying buffer
+     */
+    @NonNull
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int position() {
+        return buffer.position();
+    }
+
+    public void position(int position) {
+        buffer.position(position);
+    }
+
+    /**
+     * Copies all bytes written so far into a new byte array.
+     *
+     * @return the written bytes
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        int length = buffer.position();
+        byte[] bytes = new byte[length];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset(), bytes, 0, length);
+        } else {
+            ByteBuffer dup = buffer.duplicate();
+            dup.flip();
+            dup.get(bytes);
+        }
+        return bytes;
+    }
+
+    public void writeByte(int val) {
+        ensureCapacity(1);
+        buffer.put((byte) val);
+    }
+
+    public void writeBoolean(boolean val) {
+        writeByte(val ? 1 : 0);
+    }
+
+    public void writeFixedInt(int val) {
+        ensureCapacity(4);
+        buffer.putInt(val);
+    }
+
+    public void writeFixedInt(int position, int val) {
+        buffer.putInt(position, val);
+    }
+
+    /**
+     * Writes an int that is known to be non-negative, such as a length or an index.
+     *
+     * @param val
+     *         the value to write
+     */
+    public void writeUnsignedVarInt(int val) {
+        ensureCapacity(5);
+        while ((val & ~0x7F) != 0) {
+            buffer.put((byte) ((val & 0x7F) | 0x80));
+            val >>>= 7;
+        }
+        buffer.put((byte) val);
+    }
+
+    public void writeVarInt(int val) {
+        writeUnsignedVarInt((val << 1) ^ (val >> 31));
+    }
+
+    public void writeVarLong(long val) {
+        long zigzag = (val << 1) ^ (val >> 63);
+        ensureCapacity(10);
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    /**
+     * Writes a byte array prefixed with its length. A null array is distinguishable from an empty one.
+     *
+     * @param val
+     *         the bytes to write, may be null
+     */
+    public void writeBytes(byte[] val) {
+        if (val == null) {
+            writeUnsignedVarInt(0);
+        } else {
+            writeBytes(val, 0, val.length);
+        }
+    }
+
+    public void writeBytes(@NonNull byte[] val, int offset, int length) {
+        writeUnsignedVarInt(length + 1);
+        writeRawBytes(val, offset, length);
+    }
+
+    public void writeRawBytes(@NonNull byte[] val, int offset, int length) {
+        ensureCapacity(length);
+        buffer.put(val, offset, length);
+    }
+
+    public void writeString(String val) {
+        writeBytes(val == null ? null : val.getBytes(UTF_8));
+    }
+
+    /**
+     * Writes a string through a string table. A string already in the table is written as a reference to its index,
+     * otherwise it is written in full and added to the table. Read it back with {@link
+     * ByteReader#readString(java.util.List)}.
+     *
+     * @param val
+     *         the string to write, may be null
+     * @param table
+     *         the strings written so far, mapped to their index
+     */
+    public void writeString(String val, @NonNull Map<String, Integer> table) {
+        if (val == null) {
+            writeUnsignedVarInt(0);
+            return;
+        }
+        Integer index = table.get(val);
+        if (index != null) {
+            // even tags are references
+            writeUnsignedVarInt((index + 1) << 1);
+            return;
+        }
+        table.put(val, table.size());
+        byte[] bytes = val.getBytes(UTF_8);
+        writeUnsignedVarInt((bytes.length << 1) | 1);
+        writeRawBytes(bytes, 0, bytes.length);
+    }
+
+    public void writeIntArray(int[] val) {
+        if (val == null) {
+            writeUnsignedVarInt(0);
+            return;
+        }
+        writeUnsignedVarInt(val.length + 1);
+        ensureCapacity(val.length * 5);
+        for (int v : val) {
+            writeVarInt(v);
+        }
+    }
+
+    public void writeLongArray(long[] val) {
+        if (val == null) {
+            writeUnsignedVarInt(0);
+            return;
+        }
+        writeUnsignedVarInt(val.length + 1);
+        ensureCapacity(val.length * 10);
+        for (long v : val) {
+            writeVarLong(v);
+        }
+    }
+
+    public void writeFloatArray(float[] val) {
+        if (val == null) {
+            writeUnsignedVarInt(0);
+            return;
+        }
+        writeUnsignedVarInt(val.length + 1);
+        ensureCapacity(val.length * 4);
+        buffer.asFloatBuffer().put(val);
+        buffer.position(buffer.position() + val.length * 4);
+    }
+
+    public void writeDoubleArray(double[] val) {
+        if (val == null) {
+            writeUnsignedVarInt(0);
+            return;
+        }
+        writeUnsignedVarInt(val.length + 1);
+        ensureCapacity(val.length * 8);
+        buffer.asDoubleBuffer().put(val);
+        buffer.position(buffer.position() + val.length * 8);
+    }
+
+    /**
+     * Reserves space for a length that is not known yet. Pass the returned mark to {@link #endLength(int)} once the
+     * content has been written.
+     *
+     * @return the mark
+     */
+    public int beginLength() {
+        writeFixedInt(0);
+        return buffer.position();
+    }
+
+    /**
+     * Writes the number of bytes written since {@link #beginLength()} into the reserved space.
+     *
+     * @param mark
+     *         the mark returned from {@link #beginLength()}
+     */
+    public void endLength(int mark) {
+        writeFixedInt(mark - 4, buffer.position() - mark);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() < needed) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + needed);
+            ByteBuffer grown = buffer.isDirect()
+                    ? ByteBuffer.allocateDirect(capacity)
+                    : ByteBuffer.allocate(capacity);
+            grown.order(ByteOrder.BIG_ENDIAN);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.internal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import sharewear.BadShareableException;
+
+/**
+ * Deflates compact encoded payloads that are larger than a configurable threshold. A compressed payload is the
+ * uncompressed length as a varint followed by the deflated data.
+ */
+public final class Compressor {
+    public static final int NONE = 0;
+    public static final int DEFLATE = 1;
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final int CHUNK_SIZE = 4096;
+    // deflate cannot expand data by more than about 1032:1
+    private static final int MAX_RATIO = 1032;
+    private static final int MAX_UNCOMPRESSED_LENGTH = 64 * 1024 * 1024;
+
+    private static volatile int sThreshold = DEFAULT_THRESHOLD;
+    private static volatile byte[] sDictionary;
+
+    private Compressor() {}
+
+    /**
+     * Sets the minimum payload size, in bytes, to compress. A negative threshold disables compression. Compressed
+     * payloads are always decompressed regardless of this setting.
+     *
+     * @param threshold
+     *         the threshold in bytes
+     */
+    public static void setThreshold(int threshold) {
+        sThreshold = threshold;
+    }
+
+    /**
+     * Sets a preset dictionary used to compress payloads. Every node that decodes the payloads must set the same
+     * dictionary.
+     *
+     * @param dictionary
+     *         the dictionary or null for none
+     */
+    public static void setDictionary(@Nullable byte[] dictionary) {
+        sDictionary = dictionary;
+    }
+
+    /**
+     * Compresses the data if it is larger than the threshold and compressing makes it smaller.
+     *
+     * @param data
+     *         the data
+     * @param offset
+     *         the offset of the data
+     * @param length
+     *         the length of the data
+     * @param reserve
+     *         the number of bytes to leave empty at the start of the result for a header
+     *
+     * @return the compressed data or null if the data should be sent uncompressed
+     */
+    @Nullable
+    public static byte[] compress(@NonNull byte[] data, int offset, int length, int reserve) {
+        int threshold = sThreshold;
+        if (threshold < 0 || length < threshold) {
+            return null;
+        }
+
+        ByteWriter out = new ByteWriter(ByteBuffer.allocate(reserve + length / 2 + 16));
+        out.position(reserve);
+        out.writeUnsignedVarInt(length);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            byte[] dictionary = sDictionary;
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                out.writeRawBytes(chunk, 0, count);
+                if (out.position() >= reserve + length) {
+                    // not worth it
+                    return null;
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses data previously returned by {@link #compress(byte[], int, int, int)}.
+     *
+     * @param data
+     *         the compressed data
+     * @param offset
+     *         the offset of the compressed data, after any header
+     * @param length
+     *         the length of the compressed data
+     *
+     * @return the uncompressed data
+     *
+     * @throws BadShareableException
+     *         if the data is corrupt, does not match its declared length or was compressed with a different dictionary
+     */
+    @NonNull
+    public static byte[] decompress(@NonNull byte[] data, int offset, int length) {
+        ByteReader in = new ByteReader(ByteBuffer.wrap(data, offset, length));
+        int declared = in.readUnsignedVarInt();
+        if (declared < 0 || declared > MAX_UNCOMPRESSED_LENGTH || declared > (long) in.remaining() * MAX_RATIO) {
+            throw new BadShareableException("Invalid uncompressed length " + (declared & 0xffffffffL)
+                    + " for " + in.remaining() + " compressed bytes");
+        }
+        byte[] result = new byte[declared];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, in.position(), in.remaining());
+            int count = 0;
+            while (!inflater.finished()) {
+                int inflated;
+                if (count < result.length) {
+                    inflated = inflater.inflate(result, count, result.length - count);
+                } else {
+                    // only the end of the stream may remain
+                    inflated = inflater.inflate(new byte[1]);
+                    if (inflated > 0) {
+                        throw new BadShareableException("Compressed data is longer than " + declared + " bytes");
+                    }
+                }
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        byte[] dictionary = sDictionary;
+                        if (dictionary == null) {
+                            throw new BadShareableException("Compressed data requires a preset dictionary");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new BadShareableException("Compressed data is truncated");
+                    }
+                }
+                count += inflated;
+            }
+            if (count != result.length) {
+                throw new BadShareableException("Compressed data is " + count + " bytes, expected " + declared);
+            }
+        } catch (DataFormatException e) {
+            throw new BadShareableException(e);
+        } catch (IllegalArgumentException e) {
+            // thrown when the dictionary does not match
+            throw new BadShareableException(e);
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+}
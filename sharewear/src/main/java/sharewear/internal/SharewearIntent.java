@@ -22,6 +22,7 @@ public final class SharewearIntent {
     private static final String ACTION = BASE + "action.";
     public static final String ACTION_PUT = ACTION + "PUT";
     public static final String ACTION_DELETE = ACTION + "DELETE";
+    public static final String ACTION_FLUSH = ACTION + "FLUSH";
 
     private static final String EXTRA = BASE + "extra.";
     public static final String EXTRA_SHARED_DATA = EXTRA + "SharedData";
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors shared by the library, so that blocking Play Services calls do not compete with the app's own work on the
+ * AsyncTask pool.
+ */
+public final class WearExecutors {
+    private static final int DATA_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadLocal<Boolean> sDataThread = new ThreadLocal<Boolean>();
+    private static final ExecutorService sDefaultData;
+    private static volatile ExecutorService sData;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DATA_THREADS, DATA_THREADS, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "Sharewear data #" + count.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        sDefaultData = executor;
+        sData = executor;
+    }
+
+    private WearExecutors() { throw new AssertionError("no instances"); }
+
+    /**
+     * Gets the executor for blocking data reads and writes. Unless replaced with {@link #setData(ExecutorService)}, it
+     * runs a small, fixed number of threads. Submit work with {@link #execute(Runnable)} so it is recognized by {@link
+     * #isDataThread()}.
+     *
+     * @return the data executor
+     */
+    @NonNull
+    public static ExecutorService data() {
+        return sData;
+    }
+
+    /**
+     * Replaces the executor for blocking data reads and writes. Work already submitted keeps running on the previous
+     * executor.
+     *
+     * @param executor
+     *         the executor, or null to restore the default
+     */
+    public static void setData(@Nullable ExecutorService executor) {
+        sData = executor == null ? sDefaultData : executor;
+    }
+
+    /**
+     * Runs a task on the {@link #data()} executor.
+     *
+     * @param runnable
+     *         the task to run
+     *
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         if the executor does not accept the task
+     */
+    public static void execute(@NonNull final Runnable runnable) {
+        sData.execute(new Runnable() {
+            @Override public void run() {
+                sDataThread.set(Boolean.TRUE);
+                try {
+                    runnable.run();
+                } finally {
+                    sDataThread.remove();
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether or not the current thread is running a task from {@link #execute(Runnable)}. Such work must not block
+     * waiting for other work on the same executor.
+     *
+     * @return true if called on a data thread
+     */
+    public static boolean isDataThread() {
+        return sDataThread.get() != null;
+    }
+
+    /**
+     * Gets an executor that runs tasks on the main thread, after any tasks already posted.
+     *
+     * @return the main thread executor
+     */
+    @NonNull
+    public static Executor mainThread() {
+        return MainThreadExecutor.INSTANCE;
+    }
+
+    private static final class MainThreadExecutor implements Executor {
+        private static final MainThreadExecutor INSTANCE = new MainThreadExecutor();
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override public void execute(@NonNull Runnable command) {
+            handler.post(command);
+        }
+    }
+}
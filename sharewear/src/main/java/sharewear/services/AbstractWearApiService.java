@@ -23,10 +23,10 @@
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.Wearable;
 
 import java.util.concurrent.TimeUnit;
 
+import sharewear.internal.ApiClientPool;
 import sharewear.internal.WearLog;
 import sharewear.util.GooglePlayServicesHelper;
 
@@ -42,30 +42,36 @@ protected AbstractWearApiService(String name) {
     @Override
     public void onCreate() {
         super.onCreate();
-        mApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .build();
-        mApiClient.connect();
+        mApiClient = ApiClientPool.getInstance().acquire(this);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mApiClient.disconnect();
+        ApiClientPool.getInstance().release(mApiClient);
     }
 
     @Override
     protected final void onHandleIntent(Intent intent) {
         try {
             ConnectionResult connectionResult;
-            if (mApiClient.isConnected()
+            boolean reconnecting = !mApiClient.isConnected();
+            if (!reconnecting
                     || (connectionResult = mApiClient.blockingConnect(10, TimeUnit.SECONDS)).isSuccess()) {
+                Outbox outbox = Outbox.getInstance();
+                if (outbox != null && outbox.hasPending()) {
+                    outbox.drain(this, mApiClient, reconnecting);
+                }
                 onHandleIntentConnected(mApiClient, intent);
             } else {
                 WearLog.e(TAG, connectionResult, "unable to connect to google play services: %s", connectionResult);
                 boolean shown = GooglePlayServicesHelper.showResolutionNotification(this, connectionResult);
                 WearLog.d(TAG, "%s resolution notification", shown ? "unable to show" : "success showing");
                 onHandleIntentFailedConnecting(connectionResult, intent);
+                Outbox outbox = Outbox.getInstance();
+                if (outbox != null) {
+                    outbox.onFailedConnecting(this, connectionResult);
+                }
             }
         } catch (Exception e) {
             WearLog.e(TAG, "received an exception handling intent", e);
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.services;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of sending a message with {@link WearMessageService}, with a result for each node it was sent to.
+ */
+public final class MessageResult {
+    private final String path;
+    private final boolean connected;
+    private final List<NodeResult> nodeResults;
+
+    MessageResult(@NonNull String path, boolean connected, @NonNull List<NodeResult> nodeResults) {
+        this.path = path;
+        this.connected = connected;
+        this.nodeResults = Collections.unmodifiableList(nodeResults);
+    }
+
+    @NonNull
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Whether or not the service connected to Google Play Services. If it did not, the message was not sent to any
+     * node.
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return the result for each node, in the order the message was sent
+     */
+    @NonNull
+    public List<NodeResult> getNodeResults() {
+        return nodeResults;
+    }
+
+    /**
+     * Whether or not the message reached every node it was sent to. A message sent to no nodes succeeds if the service
+     * connected.
+     *
+     * @return true if every send succeeded
+     */
+    public boolean isSuccess() {
+        if (!connected) {
+            return false;
+        }
+        for (NodeResult nodeResult : nodeResults) {
+            if (!nodeResult.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the results for nodes the message could not be sent to
+     */
+    @NonNull
+    public List<NodeResult> getFailures() {
+        List<NodeResult> failures = new ArrayList<NodeResult>();
+        for (NodeResult nodeResult : nodeResults) {
+            if (!nodeResult.isSuccess()) {
+                failures.add(nodeResult);
+            }
+        }
+        return failures;
+    }
+
+    @Override public String toString() {
+        return "MessageResult{" +
+                "path='" + path + '\'' +
+                ", connected=" + connected +
+                ", nodeResults=" + nodeResults +
+                '}';
+    }
+
+    /**
+     * The result of sending a message to a single node.
+     */
+    public static final class NodeResult {
+        private final String nodeId;
+        private final int statusCode;
+        private final boolean success;
+        private final boolean timedOut;
+        private final long latencyMillis;
+
+        NodeResult(@NonNull String nodeId, int statusCode, boolean success, boolean timedOut, long latencyMillis) {
+            this.nodeId = nodeId;
+            this.statusCode = statusCode;
+            this.success = success;
+            this.timedOut = timedOut;
+            this.latencyMillis = latencyMillis;
+        }
+
+        @NonNull
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        /**
+         * @return the status code, see {@link com.google.android.gms.common.api.CommonStatusCodes}
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return true if the send did not finish before the deadline
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return the time from sending the message until it finished, failed or timed out
+         */
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        @Override public String toString() {
+            return "NodeResult{" +
+                    "nodeId='" + nodeId + '\'' +
+                    ", statusCode=" + statusCode +
+                    ", success=" + success +
+                    ", timedOut=" + timedOut +
+                    ", latencyMillis=" + latencyMillis +
+                    '}';
+        }
+    }
+}
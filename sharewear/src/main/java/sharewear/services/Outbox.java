@@ -0,0 +1,598 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.services;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import sharewear.BadShareableException;
+import sharewear.SharedData;
+import sharewear.SharedParcel;
+import sharewear.WearUtils;
+import sharewear.internal.ByteReader;
+import sharewear.internal.ByteWriter;
+import sharewear.internal.WearLog;
+
+/**
+ * Durable queue of puts, deletes and messages that could not be delivered, because Google Play Services could not be
+ * connected or rejected the request. Once installed with {@link #install(Outbox)}, the services record such work
+ * here instead of dropping it, and the outbox is drained the next time any of them connects. Failed drains are retried
+ * with exponential backoff.
+ * <p/>
+ * Entries are appended to a single file, each with a CRC32, and delivered entries are marked with an acknowledgement
+ * record. A put or delete replaces any queued put or delete to the same path, so an outage costs one delivery per
+ * path. Messages are never coalesced. A torn record at the end of the file, left by a crash, is dropped when the file
+ * is opened, and the file is compacted once most of it holds outdated records.
+ */
+public final class Outbox {
+    private static final String TAG = Outbox.class.getSimpleName();
+    private static final int HEADER_SIZE = 8;
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MESSAGE_TIMEOUT_MS = 30000;
+    private static final byte OP_ACK = 0;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_MESSAGE = 3;
+    private static final int DELIVERED = 0;
+    private static final int FAILED = 1;
+    // delivered to some nodes, and queued again for the rest
+    private static final int PARTIALLY_DELIVERED = 2;
+
+    private static volatile Outbox sInstance;
+
+    private final File file;
+    // key -> latest entry, in the order the keys were first queued
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    private final Map<Long, String> keysBySeq = new HashMap<Long, String>();
+    private final Runnable retryRunnable = new Runnable() {
+        @Override public void run() {
+            retry();
+        }
+    };
+    private RandomAccessFile raf;
+    private long size;
+    private long liveSize;
+    private long nextSeq;
+    // read without the lock, so services can skip draining an empty outbox
+    private volatile int queued;
+
+    private Handler handler;
+    private Context context;
+    private boolean draining;
+    private int attempts;
+    private long nextAttemptAt;
+
+    private Outbox(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens an outbox, creating the file if it does not exist. Entries left from a previous process are kept.
+     *
+     * @param file
+     *         the outbox file
+     *
+     * @return the outbox
+     *
+     * @throws IOException
+     *         if the file cannot be opened
+     */
+    @NonNull
+    public static Outbox open(@NonNull File file) throws IOException {
+        Outbox outbox = new Outbox(file);
+        synchronized (outbox) {
+            outbox.load();
+            outbox.compactIfNeeded();
+        }
+        return outbox;
+    }
+
+    /**
+     * Installs the outbox that undelivered work is recorded into.
+     *
+     * @param outbox
+     *         the outbox, or null to drop undelivered work
+     */
+    public static void install(@Nullable Outbox outbox) {
+        sInstance = outbox;
+    }
+
+    /**
+     * Gets the installed outbox.
+     *
+     * @return the outbox, or null if none is installed
+     */
+    @Nullable
+    public static Outbox getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the number of entries waiting to be delivered
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether or not any entries are waiting to be delivered. Unlike {@link #size()}, this does not wait for a drain
+     * or write in progress.
+     *
+     * @return true if entries are queued
+     */
+    public boolean hasPending() {
+        return queued > 0;
+    }
+
+    /**
+     * @return the number of failed drains since the last successful one
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    synchronized void put(@NonNull SharedData data) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        SharedParcel parcel = new SharedParcel(buffer);
+        parcel.writeShareable(data, 0);
+        buffer = parcel.getByteBuffer();
+        ByteWriter body = newBody(OP_PUT);
+        body.writeString(data.getPath());
+        body.writeRawBytes(buffer.array(), buffer.arrayOffset(), buffer.position());
+        append(body);
+    }
+
+    synchronized void delete(@NonNull Uri uri) {
+        ByteWriter body = newBody(OP_DELETE);
+        body.writeString(uri.toString());
+        append(body);
+    }
+
+    synchronized void message(@Nullable String nodeId, @NonNull String path, @Nullable byte[] data) {
+        ByteWriter body = newBody(OP_MESSAGE);
+        body.writeString(nodeId);
+        body.writeString(path);
+        body.writeBytes(data);
+        append(body);
+    }
+
+    /**
+     * Marks the current end of the queue, before sending data that may make queued entries outdated.
+     *
+     * @return the mark to pass to {@link #discard(String, long)}
+     */
+    synchronized long mark() {
+        return nextSeq;
+    }
+
+    /**
+     * Drops a queued put or delete to a path, because newer data was just delivered there. An entry queued after the
+     * mark may hold even newer data, so it is kept.
+     *
+     * @param path
+     *         the path
+     * @param mark
+     *         the {@link #mark()} taken before the data was sent
+     */
+    synchronized void discard(@NonNull String path, long mark) {
+        Entry entry = entries.get(dataKey(path));
+        if (entry != null && entry.seq < mark) {
+            ack(entry.seq);
+        }
+    }
+
+    public synchronized void close() {
+        if (handler != null) {
+            handler.removeCallbacks(retryRunnable);
+        }
+        WearUtils.closeQuietly(raf);
+        raf = null;
+    }
+
+    /**
+     * Delivers every queued entry, unless a drain is already running or the backoff has not elapsed. Entries that
+     * fail again stay queued and a retry is scheduled.
+     *
+     * @param context
+     *         the context used to schedule retries
+     * @param apiClient
+     *         a connected GoogleApiClient
+     * @param reconnected
+     *         true if the client just connected, so the backoff from failures on the previous connection is skipped
+     */
+    void drain(@NonNull Context context, @NonNull GoogleApiClient apiClient, boolean reconnected) {
+        List<Entry> due;
+        synchronized (this) {
+            this.context = context.getApplicationContext();
+            if (entries.isEmpty() || draining
+                    || (!reconnected && SystemClock.elapsedRealtime() < nextAttemptAt)) {
+                return;
+            }
+            draining = true;
+            due = new ArrayList<Entry>(entries.values());
+        }
+        WearLog.d(TAG, "draining %d entries", due.size());
+        boolean failed = false;
+        try {
+            for (Entry entry : due) {
+                if (!apiClient.isConnected()) {
+                    // disconnected part way through, the rest is retried on the next connection
+                    failed = true;
+                    break;
+                }
+                int result = deliver(apiClient, entry);
+                if (result != FAILED) {
+                    synchronized (this) {
+                        ack(entry.seq);
+                    }
+                }
+                failed |= result != DELIVERED;
+            }
+        } finally {
+            synchronized (this) {
+                draining = false;
+                if (failed) {
+                    scheduleRetry();
+                } else {
+                    attempts = 0;
+                    nextAttemptAt = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a retry after the service could not connect.
+     *
+     * @param context
+     *         the context used to schedule the retry
+     * @param connectionResult
+     *         why the service could not connect
+     */
+    synchronized void onFailedConnecting(@NonNull Context context, @NonNull ConnectionResult connectionResult) {
+        this.context = context.getApplicationContext();
+        if (!entries.isEmpty() && !draining && SystemClock.elapsedRealtime() >= nextAttemptAt) {
+            WearLog.d(TAG, "unable to drain %d entries: %s", entries.size(), connectionResult);
+            scheduleRetry();
+        }
+    }
+
+    private void scheduleRetry() {
+        long backoff = Math.min(MIN_BACKOFF_MS << Math.min(attempts, 20), MAX_BACKOFF_MS);
+        attempts++;
+        nextAttemptAt = SystemClock.elapsedRealtime() + backoff;
+        if (context == null) {
+            return;
+        }
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        handler.removeCallbacks(retryRunnable);
+        handler.postDelayed(retryRunnable, backoff);
+        WearLog.d(TAG, "retrying %d entries in %dms", entries.size(), backoff);
+    }
+
+    private void retry() {
+        Context context;
+        synchronized (this) {
+            if (entries.isEmpty() || raf == null) {
+                return;
+            }
+            context = this.context;
+        }
+        // the service drains the outbox as it connects, but an in-process runner has to drain it itself
+        WearRunnerService.run(context, new WearRunnerService.Runner() {
+            @Override public void run(@NonNull Context context, @NonNull GoogleApiClient apiClient) {
+                drain(context, apiClient, false);
+            }
+
+            @Override public void onFailedConnecting(@NonNull Context context,
+                    @NonNull ConnectionResult connectionResult) {}
+        });
+    }
+
+    private int deliver(GoogleApiClient apiClient, Entry entry) {
+        // decode everything before sending, so that only errors in the entry itself cause it to be dropped
+        ByteReader reader;
+        byte op;
+        SharedData putData = null;
+        Uri deleteUri = null;
+        String nodeId = null;
+        String path = null;
+        byte[] messageData = null;
+        try {
+            reader = new ByteReader(entry.body);
+            reader.readVarLong();
+            op = reader.readByte();
+            switch (op) {
+                case OP_PUT:
+                    reader.readString();
+                    putData = new SharedParcel(reader.getBuffer().slice())
+                            .readShareable(SharedData.class.getClassLoader());
+                    if (putData == null) {
+                        throw new BadShareableException("SharedData class not found");
+                    }
+                    break;
+                case OP_DELETE:
+                    deleteUri = Uri.parse(reader.readString());
+                    break;
+                case OP_MESSAGE:
+                    nodeId = reader.readString();
+                    path = reader.readString();
+                    messageData = reader.readBytes();
+                    break;
+                default:
+                    return DELIVERED;
+            }
+        } catch (RuntimeException e) {
+            // the class changed since it was queued, or the entry is corrupt, so it can never be delivered
+            WearLog.e(TAG, "dropping undeliverable entry " + entry.key, e);
+            return DELIVERED;
+        }
+
+        try {
+            switch (op) {
+                case OP_PUT:
+                    return WearDataService.putAll(apiClient, Arrays.asList(putData)) == 0 ? DELIVERED : FAILED;
+                case OP_DELETE:
+                    return WearDataService.deleteItems(apiClient, deleteUri) ? DELIVERED : FAILED;
+                default:
+                    return sendMessage(apiClient, nodeId, path, messageData);
+            }
+        } catch (RuntimeException e) {
+            // for example the client disconnected, so keep the entry for the next drain
+            WearLog.e(TAG, "error delivering entry " + entry.key, e);
+            return FAILED;
+        }
+    }
+
+    private int sendMessage(GoogleApiClient apiClient, String nodeId, String path, byte[] data) {
+        List<String> nodeIds = nodeId == null
+                ? WearUtils.getConnectedNodeIds(apiClient)
+                : Arrays.asList(nodeId);
+        if (nodeIds.isEmpty()) {
+            // nobody received it yet
+            return FAILED;
+        }
+        List<PendingResult<MessageApi.SendMessageResult>> pending
+                = new ArrayList<PendingResult<MessageApi.SendMessageResult>>(nodeIds.size());
+        for (String id : nodeIds) {
+            pending.add(Wearable.MessageApi.sendMessage(apiClient, id, path, data));
+        }
+        long deadline = SystemClock.elapsedRealtime() + MESSAGE_TIMEOUT_MS;
+        List<String> failedNodeIds = new ArrayList<String>(0);
+        for (int i = 0; i < nodeIds.size(); i++) {
+            long remaining = Math.max(0, deadline - SystemClock.elapsedRealtime());
+            MessageApi.SendMessageResult result = pending.get(i).await(remaining, TimeUnit.MILLISECONDS);
+            if (!result.getStatus().isSuccess()) {
+                failedNodeIds.add(nodeIds.get(i));
+            }
+        }
+        if (failedNodeIds.isEmpty()) {
+            return DELIVERED;
+        } else if (failedNodeIds.size() == nodeIds.size()) {
+            return FAILED;
+        }
+        // queue the message again for the nodes that did not receive it, so the others are not sent it twice
+        synchronized (this) {
+            for (String id : failedNodeIds) {
+                message(id, path, data);
+            }
+        }
+        return PARTIALLY_DELIVERED;
+    }
+
+    private ByteWriter newBody(byte op) {
+        ByteWriter body = new ByteWriter();
+        body.writeVarLong(nextSeq);
+        body.writeByte(op);
+        return body;
+    }
+
+    private void ack(long seq) {
+        if (!keysBySeq.containsKey(seq)) {
+            return;
+        }
+        ByteWriter body = newBody(OP_ACK);
+        body.writeVarLong(seq);
+        append(body);
+    }
+
+    private void append(ByteWriter body) {
+        if (raf == null) {
+            return;
+        }
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        record.putInt(bytes.length);
+        record.putInt((int) crc.getValue());
+        record.put(bytes);
+        try {
+            raf.seek(size);
+            raf.write(record.array());
+            size += record.capacity();
+            apply(bytes);
+            compactIfNeeded();
+        } catch (IOException e) {
+            WearLog.e(TAG, "error writing outbox", e);
+        }
+    }
+
+    private void apply(byte[] body) {
+        ByteReader reader = new ByteReader(body);
+        long seq = reader.readVarLong();
+        byte op = reader.readByte();
+        nextSeq = Math.max(nextSeq, seq + 1);
+        String key;
+        switch (op) {
+            case OP_ACK:
+                remove(keysBySeq.get(reader.readVarLong()));
+                return;
+            case OP_PUT:
+                key = dataKey(reader.readString());
+                break;
+            case OP_DELETE:
+                Uri uri = Uri.parse(reader.readString());
+                // a delete for every node replaces a queued put, one for a single node does not
+                key = uri.getAuthority() == null ? dataKey(uri.getPath()) : uri.toString();
+                break;
+            default:
+                key = "message:" + seq;
+                break;
+        }
+        remove(key);
+        Entry entry = new Entry(key, seq, body);
+        entries.put(key, entry);
+        keysBySeq.put(seq, key);
+        liveSize += HEADER_SIZE + body.length;
+        queued = entries.size();
+    }
+
+    private void remove(String key) {
+        Entry previous = key == null ? null : entries.remove(key);
+        if (previous != null) {
+            keysBySeq.remove(previous.seq);
+            liveSize -= HEADER_SIZE + previous.body.length;
+            queued = entries.size();
+        }
+    }
+
+    private static String dataKey(String path) {
+        return "data:" + path;
+    }
+
+    private void load() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        long length = raf.length();
+        if (length == 0) {
+            return;
+        }
+        byte[] bytes = new byte[(int) length];
+        raf.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int bodyLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (bodyLength < 0 || bodyLength > buffer.remaining()) {
+                break;
+            }
+            byte[] body = new byte[bodyLength];
+            buffer.get(body);
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                apply(body);
+            } catch (BadShareableException e) {
+                break;
+            } catch (BufferUnderflowException e) {
+                break;
+            }
+            size = buffer.position();
+        }
+        if (size < length) {
+            WearLog.w(TAG, "dropping %d corrupt bytes at the end of the outbox", length - size);
+            raf.setLength(size);
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (size > MIN_COMPACT_SIZE && size > liveSize * 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the file with only the queued entries.
+     */
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            for (Entry entry : entries.values()) {
+                CRC32 crc = new CRC32();
+                crc.update(entry.body, 0, entry.body.length);
+                out.writeInt(entry.body.length);
+                out.writeInt((int) crc.getValue());
+                out.write(entry.body);
+            }
+        } finally {
+            WearUtils.closeQuietly(out);
+        }
+        WearUtils.closeQuietly(raf);
+        raf = null;
+        boolean renamed = temp.renameTo(file);
+        if (!renamed && !temp.delete()) {
+            WearLog.w(TAG, "could not delete %s", temp);
+        }
+        // reopen the compacted file, or the original one if it could not be replaced
+        entries.clear();
+        keysBySeq.clear();
+        queued = 0;
+        size = 0;
+        liveSize = 0;
+        load();
+        if (!renamed) {
+            throw new IOException("could not replace " + file);
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final long seq;
+        private final byte[] body;
+
+        private Entry(String key, long seq, byte[] body) {
+            this.key = key;
+            this.seq = seq;
+            this.body = body;
+        }
+    }
+}
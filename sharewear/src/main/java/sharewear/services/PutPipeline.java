@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.services;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import sharewear.SharedData;
+import sharewear.internal.SharewearIntent;
+
+/**
+ * Holds puts made through {@link WearDataService#put(Context, SharedData)} in process until the service flushes them,
+ * instead of parceling each one into its own intent. Pending puts are coalesced by path, so only the last data put to
+ * a path within the coalescing window is sent. The data is not copied, so it must not be modified after it is put.
+ * <p/>
+ * The pipeline is disabled by default; enable it with {@link WearDataService#setCoalesceWindow(long)}.
+ */
+public final class PutPipeline {
+    private final LinkedHashMap<String, SharedData> pending = new LinkedHashMap<String, SharedData>();
+    private final Runnable flushRunnable = new Runnable() {
+        @Override public void run() {
+            startFlush();
+        }
+    };
+
+    private Handler handler;
+    private Context context;
+    private long windowMs = -1;
+    private boolean flushScheduled;
+
+    private long enqueuedCount;
+    private long coalescedCount;
+    private long sentCount;
+    private long failedCount;
+
+    PutPipeline() {}
+
+    synchronized boolean isEnabled() {
+        return windowMs >= 0;
+    }
+
+    /**
+     * Sets how long to wait after the first pending put before flushing.
+     *
+     * @param windowMs
+     *         the window in milliseconds, 0 to flush as soon as the service runs, or negative to disable the pipeline
+     */
+    synchronized void setWindow(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Adds a put to the pipeline, replacing any pending put to the same path.
+     *
+     * @param context
+     *         the context used to start {@link WearDataService}
+     * @param data
+     *         the data to put
+     *
+     * @return true if the put was queued, false if the pipeline is disabled
+     */
+    boolean enqueue(@NonNull Context context, @NonNull SharedData data) {
+        synchronized (this) {
+            if (windowMs < 0) {
+                return false;
+            }
+            enqueuedCount++;
+            if (pending.remove(data.getPath()) != null) {
+                coalescedCount++;
+            }
+            // re-insert so a replaced path moves to the end, after puts made before it
+            pending.put(data.getPath(), data);
+            if (flushScheduled) {
+                return true;
+            }
+            flushScheduled = true;
+            this.context = context.getApplicationContext();
+            if (windowMs > 0) {
+                if (handler == null) {
+                    handler = new Handler(Looper.getMainLooper());
+                }
+                handler.postDelayed(flushRunnable, windowMs);
+                return true;
+            }
+        }
+        startFlush();
+        return true;
+    }
+
+    /**
+     * Drops a pending put, because the data at its path is being deleted.
+     *
+     * @param path
+     *         the path
+     */
+    synchronized void cancel(@NonNull String path) {
+        if (pending.remove(path) != null) {
+            coalescedCount++;
+        }
+    }
+
+    /**
+     * Takes all pending puts. Puts enqueued afterward schedule a new flush.
+     *
+     * @return the pending puts, oldest first
+     */
+    @NonNull
+    synchronized List<SharedData> drain() {
+        flushScheduled = false;
+        if (handler != null) {
+            handler.removeCallbacks(flushRunnable);
+        }
+        List<SharedData> drained = new ArrayList<SharedData>(pending.values());
+        pending.clear();
+        return drained;
+    }
+
+    synchronized void onFlushed(int sent, int failed) {
+        sentCount += sent;
+        failedCount += failed;
+    }
+
+    /**
+     * @return the number of puts waiting to be flushed
+     */
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of puts added to the pipeline
+     */
+    public synchronized long getEnqueuedCount() {
+        return enqueuedCount;
+    }
+
+    /**
+     * @return the number of puts replaced by a later put or delete to the same path before being sent
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of puts sent successfully
+     */
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return the number of puts that failed to send
+     */
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    private void startFlush() {
+        Context context;
+        synchronized (this) {
+            context = this.context;
+        }
+        Intent intent = new Intent(context, WearDataService.class);
+        intent.setAction(SharewearIntent.ACTION_FLUSH);
+        context.startService(intent);
+    }
+}
@@ -19,28 +19,65 @@
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import sharewear.SharedData;
+import sharewear.cache.SnapshotStore;
 import sharewear.internal.SharewearIntent;
 import sharewear.internal.WearLog;
 
 public class WearDataService extends AbstractWearApiService {
     private static final String TAG = WearDataService.class.getSimpleName();
+    private static final long PUT_TIMEOUT_MS = 30000;
+
+    private static final PutPipeline sPipeline = new PutPipeline();
 
     public WearDataService() {
         super(TAG);
     }
 
+    /**
+     * Sets the coalescing window for puts. When enabled, puts are held in process by the {@link PutPipeline} rather
+     * than parceled into separate intents, and only the last put to each path within the window is sent. The
+     * surviving puts are sent concurrently. Data must not be modified after it is put while the pipeline is enabled.
+     *
+     * @param windowMs
+     *         how long to wait after the first pending put before sending, 0 to send as soon as the service runs, or
+     *         negative to disable coalescing. Disabled by default.
+     */
+    public static void setCoalesceWindow(long windowMs) {
+        sPipeline.setWindow(windowMs);
+    }
+
+    /**
+     * Gets the put pipeline, for its queue depth and coalescing counters.
+     *
+     * @return the put pipeline
+     */
+    @NonNull
+    public static PutPipeline getPutPipeline() {
+        return sPipeline;
+    }
+
     public static void put(Context context, SharedData data) {
+        if (sPipeline.enqueue(context, data)) {
+            return;
+        }
         Intent intent = new Intent(context, WearDataService.class);
         intent.setAction(SharewearIntent.ACTION_PUT);
         intent.putExtra(SharewearIntent.EXTRA_SHARED_DATA, data);
@@ -48,6 +85,11 @@ public static void put(Context context, SharedData data) {
     }
 
     public static void delete(Context context, Uri uri) {
+        String path = uri.getPath();
+        if (path != null && uri.getAuthority() == null) {
+            // the delete covers every node, so a pending put to the same path is obsolete
+            sPipeline.cancel(path);
+        }
         Intent intent = new Intent(context, WearDataService.class);
         intent.setAction(SharewearIntent.ACTION_DELETE);
         intent.putExtra(SharewearIntent.EXTRA_URI, uri);
@@ -63,29 +105,19 @@ protected void onHandleIntentConnected(@NonNull GoogleApiClient apiClient,
                 final SharedData data
                         = intent.getParcelableExtra(SharewearIntent.EXTRA_SHARED_DATA);
                 if (data != null) {
-                    final PutDataRequest request = data.asPutDataRequest(apiClient);
-                    DataApi.DataItemResult result
-                            = Wearable.DataApi.putDataItem(apiClient, request)
-                            .await();
-                    Status status = result.getStatus();
-                    WearLog.i(TAG, "%s putting data item: %s",
-                            status.isSuccess() ? "SUCCESS" : "FAILED",
-                            request.getUri());
-                    if (!status.isSuccess()) {
-                        WearLog.e(TAG, "error sending message: %s", status);
-                    }
+                    putAll(apiClient, Collections.singletonList(data));
+                }
+            } else if (SharewearIntent.ACTION_FLUSH.equals(action)) {
+                List<SharedData> pending = sPipeline.drain();
+                if (!pending.isEmpty()) {
+                    WearLog.d(TAG, "flushing %d coalesced puts", pending.size());
+                    int failed = putAll(apiClient, pending);
+                    sPipeline.onFlushed(pending.size() - failed, failed);
                 }
             } else if (SharewearIntent.ACTION_DELETE.equals(action)) {
                 final Uri uri = intent.getParcelableExtra(SharewearIntent.EXTRA_URI);
                 if (uri != null) {
-                    DataApi.DeleteDataItemsResult result
-                            = Wearable.DataApi.deleteDataItems(apiClient, uri)
-                            .await();
-                    Status status = result.getStatus();
-                    WearLog.i(TAG, "%s deleting data item: %s", status.isSuccess() ? "SUCCESS" : "FAILED", uri);
-                    if (!status.isSuccess()) {
-                        WearLog.e(TAG, "error sending message: %s", status);
-                    }
+                    deleteItems(apiClient, uri);
                 }
             }
         }
@@ -94,6 +126,143 @@ protected void onHandleIntentConnected(@NonNull GoogleApiClient apiClient,
     @Override
     protected void onHandleIntentFailedConnecting(@NonNull ConnectionResult connectionResult,
             @Nullable Intent intent) {
-        // TODO: maybe save off data to be handled later?
+        final Outbox outbox = Outbox.getInstance();
+        final String action;
+        if (outbox == null || intent == null || (action = intent.getAction()) == null) {
+            return;
+        }
+        if (SharewearIntent.ACTION_PUT.equals(action)) {
+            final SharedData data = intent.getParcelableExtra(SharewearIntent.EXTRA_SHARED_DATA);
+            if (data != null) {
+                queue(outbox, data);
+            }
+        } else if (SharewearIntent.ACTION_FLUSH.equals(action)) {
+            for (SharedData data : sPipeline.drain()) {
+                queue(outbox, data);
+            }
+        } else if (SharewearIntent.ACTION_DELETE.equals(action)) {
+            final Uri uri = intent.getParcelableExtra(SharewearIntent.EXTRA_URI);
+            if (uri != null) {
+                outbox.delete(uri);
+            }
+        }
+    }
+
+    /**
+     * Puts data items. All of the requests are issued before waiting on any of them, so they are sent concurrently, and
+     * the whole batch is bounded by a timeout. Items that could not be sent are handed to the {@link Outbox}, if one
+     * is installed.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param datas
+     *         the data to put
+     *
+     * @return the number of puts that failed
+     */
+    static int putAll(@NonNull GoogleApiClient apiClient, @NonNull List<SharedData> datas) {
+        final int size = datas.size();
+        final Outbox outbox = Outbox.getInstance();
+        // only entries queued before these puts were sent can be outdated by them
+        final long mark = outbox != null ? outbox.mark() : 0;
+        List<SharedData> sent = new ArrayList<SharedData>(size);
+        List<PutDataRequest> requests = new ArrayList<PutDataRequest>(size);
+        List<PendingResult<DataApi.DataItemResult>> pendingResults
+                = new ArrayList<PendingResult<DataApi.DataItemResult>>(size);
+        int failed = 0;
+        for (SharedData data : datas) {
+            try {
+                final PutDataRequest request = data.asPutDataRequest(apiClient);
+                pendingResults.add(Wearable.DataApi.putDataItem(apiClient, request));
+                requests.add(request);
+                sent.add(data);
+            } catch (RuntimeException e) {
+                // one bad item must not lose the rest of the batch
+                WearLog.e(TAG, "error putting data item: " + data.getPath(), e);
+                failed++;
+                queue(outbox, data);
+            }
+        }
+
+        final long deadline = SystemClock.elapsedRealtime() + PUT_TIMEOUT_MS;
+        for (int i = 0; i < pendingResults.size(); i++) {
+            SharedData data = sent.get(i);
+            long remaining = Math.max(0, deadline - SystemClock.elapsedRealtime());
+            Status status;
+            try {
+                status = pendingResults.get(i).await(remaining, TimeUnit.MILLISECONDS).getStatus();
+            } catch (RuntimeException e) {
+                WearLog.e(TAG, "error putting data item: " + data.getPath(), e);
+                status = null;
+            }
+            boolean success = status != null && status.isSuccess();
+            WearLog.i(TAG, "%s putting data item: %s",
+                    success ? "SUCCESS" : "FAILED",
+                    requests.get(i).getUri());
+            if (!success) {
+                WearLog.e(TAG, "error putting data item: %s", status);
+                failed++;
+                queue(outbox, data);
+            } else {
+                SnapshotStore snapshots = SnapshotStore.getInstance();
+                if (snapshots != null) {
+                    snapshots.put(data);
+                }
+                if (outbox != null) {
+                    outbox.discard(data.getPath(), mark);
+                }
+            }
+        }
+        return failed;
+    }
+
+    private static void queue(@Nullable Outbox outbox, @NonNull SharedData data) {
+        if (outbox == null) {
+            return;
+        }
+        try {
+            outbox.put(data);
+        } catch (RuntimeException e) {
+            // the data cannot be encoded, so it could never be delivered
+            WearLog.e(TAG, "error queueing data item: " + data.getPath(), e);
+        }
+    }
+
+    /**
+     * Deletes data items.
+     *
+     * @param apiClient
+     *         the GoogleApiClient
+     * @param uri
+     *         the uri of the data items
+     *
+     * @return true if the data items were deleted
+     */
+    static boolean deleteItems(@NonNull GoogleApiClient apiClient, @NonNull Uri uri) {
+        Outbox outbox = Outbox.getInstance();
+        long mark = outbox != null ? outbox.mark() : 0;
+        DataApi.DeleteDataItemsResult result
+                = Wearable.DataApi.deleteDataItems(apiClient, uri)
+                .await();
+        Status status = result.getStatus();
+        WearLog.i(TAG, "%s deleting data item: %s", status.isSuccess() ? "SUCCESS" : "FAILED", uri);
+        if (!status.isSuccess()) {
+            WearLog.e(TAG, "error deleting data items: %s", status);
+            if (outbox != null) {
+                outbox.delete(uri);
+            }
+            return false;
+        }
+        String path = uri.getPath();
+        if (path != null) {
+            SnapshotStore snapshots = SnapshotStore.getInstance();
+            if (snapshots != null) {
+                snapshots.remove(path);
+            }
+            if (outbox != null && uri.getAuthority() == null) {
+                outbox.discard(path, mark);
+            }
+        }
+        return true;
     }
 }
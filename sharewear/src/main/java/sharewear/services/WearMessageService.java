@@ -22,35 +22,101 @@
 import android.support.annotation.Nullable;
 
 import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.CommonStatusCodes;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import sharewear.WearUtils;
 import sharewear.internal.SharewearIntent;
+import sharewear.internal.WearExecutors;
 import sharewear.internal.WearLog;
+import sharewear.util.Callback;
 
 public class WearMessageService extends AbstractWearApiService {
     private static final String TAG = WearMessageService.class.getSimpleName();
+    private static final long DEFAULT_SEND_TIMEOUT_MS = 30000;
+
+    private static final ServiceRunners<ResultRunner> sCallbacks = ServiceRunners.create();
+    private static volatile long sSendTimeoutMs = DEFAULT_SEND_TIMEOUT_MS;
 
     public WearMessageService() {
         super(TAG);
     }
 
+    /**
+     * Sets how long to wait for a message to reach every node. Sends are issued to all nodes at once and their results
+     * collected together, so the whole broadcast is bounded by this timeout. Defaults to 30 seconds.
+     *
+     * @param timeoutMs
+     *         the timeout in milliseconds
+     */
+    public static void setSendTimeout(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeout must be positive: " + timeoutMs);
+        }
+        sSendTimeoutMs = timeoutMs;
+    }
+
     public static void sendMessage(Context context, String path, byte[] data) {
-        sendMessage(context, null, path, data);
+        sendMessage(context, null, path, data, null);
     }
 
     public static void sendMessage(Context context, String nodeId, String path, byte[] data) {
+        sendMessage(context, nodeId, path, data, null);
+    }
+
+    /**
+     * Sends a message to every connected node and reports how each send went.
+     *
+     * @param context
+     *         the context
+     * @param path
+     *         the message path
+     * @param data
+     *         the message data
+     * @param callback
+     *         called on the main thread with the result for each node
+     */
+    public static void sendMessage(Context context, String path, byte[] data,
+            @Nullable Callback<MessageResult> callback) {
+        sendMessage(context, null, path, data, callback);
+    }
+
+    /**
+     * Sends a message to a node, or to every connected node if the node id is null, and reports how each send went.
+     *
+     * @param context
+     *         the context
+     * @param nodeId
+     *         the node id, or null for every connected node
+     * @param path
+     *         the message path
+     * @param data
+     *         the message data
+     * @param callback
+     *         called on the main thread with the result for each node
+     */
+    public static void sendMessage(Context context, String nodeId, String path, byte[] data,
+            @Nullable Callback<MessageResult> callback) {
         if (context != null) {
             Intent intent = new Intent(context, WearMessageService.class);
             intent.putExtra(SharewearIntent.EXTRA_NODE_ID, nodeId);
             intent.putExtra(SharewearIntent.EXTRA_PATH, path);
             intent.putExtra(SharewearIntent.EXTRA_DATA, data);
+            if (callback != null) {
+                sCallbacks.add(intent, new ResultRunner(callback));
+            }
             context.startService(intent);
         }
     }
@@ -61,26 +127,121 @@ protected void onHandleIntentConnected(@NonNull GoogleApiClient apiClient, @Null
         String nodeId = intent.getStringExtra(SharewearIntent.EXTRA_NODE_ID);
         String path = intent.getStringExtra(SharewearIntent.EXTRA_PATH);
         byte[] data = intent.getByteArrayExtra(SharewearIntent.EXTRA_DATA);
+        ResultRunner callback = sCallbacks.get(intent);
         List<String> nodeIds = nodeId == null
                 ? WearUtils.getConnectedNodeIds(apiClient)
                 : Arrays.asList(nodeId);
-        // TODO: get result
-        // TODO: how do we notify of failure?
-        for (String id : nodeIds) {
-            MessageApi.SendMessageResult result = Wearable.MessageApi.sendMessage(apiClient, id, path, data)
-                    .await();
-            Status status = result.getStatus();
-            WearLog.i(TAG, "%s sending message: %s",
-                    status.isSuccess() ? "SUCCESS" : "FAILED",
-                    path);
-            if (!status.isSuccess()) {
-                WearLog.e(TAG, "error sending message: %s", status);
+        List<MessageResult.NodeResult> results = fanOut(apiClient, nodeIds, path, data);
+        Outbox outbox = Outbox.getInstance();
+        if (outbox != null) {
+            for (MessageResult.NodeResult result : results) {
+                // a send that timed out may still arrive, so only queue sends that were rejected
+                if (!result.isSuccess() && !result.isTimedOut()) {
+                    outbox.message(result.getNodeId(), path, data);
+                }
             }
         }
+        if (callback != null) {
+            callback.deliver(new MessageResult(path, true, results));
+        }
     }
 
     @Override
     protected void onHandleIntentFailedConnecting(@NonNull ConnectionResult connectionResult, @Nullable Intent intent) {
-        // TODO: how do we notify of failure?
+        if (intent == null) { return; }
+        String path = intent.getStringExtra(SharewearIntent.EXTRA_PATH);
+        Outbox outbox = Outbox.getInstance();
+        if (outbox != null && path != null) {
+            outbox.message(intent.getStringExtra(SharewearIntent.EXTRA_NODE_ID), path,
+                    intent.getByteArrayExtra(SharewearIntent.EXTRA_DATA));
+        }
+        ResultRunner callback = sCallbacks.get(intent);
+        if (callback != null) {
+            callback.deliver(new MessageResult(path, false, new ArrayList<MessageResult.NodeResult>(0)));
+        }
+    }
+
+    /**
+     * Sends a message to several nodes at once and waits for all of them together, up to the send timeout. Each result
+     * is delivered through a result callback with the timeout, so no thread other than the caller is blocked, and
+     * each latency is measured when its own send finishes.
+     */
+    private static List<MessageResult.NodeResult> fanOut(@NonNull GoogleApiClient apiClient,
+            @NonNull List<String> nodeIds, @NonNull final String path, @Nullable byte[] data) {
+        final int size = nodeIds.size();
+        final long timeoutMs = sSendTimeoutMs;
+        final long startNanos = System.nanoTime();
+        final AtomicReferenceArray<MessageResult.NodeResult> results
+                = new AtomicReferenceArray<MessageResult.NodeResult>(size);
+        final CountDownLatch latch = new CountDownLatch(size);
+        final List<PendingResult<MessageApi.SendMessageResult>> pending
+                = new ArrayList<PendingResult<MessageApi.SendMessageResult>>(size);
+        for (int i = 0; i < size; i++) {
+            final int index = i;
+            final String id = nodeIds.get(i);
+            PendingResult<MessageApi.SendMessageResult> send
+                    = Wearable.MessageApi.sendMessage(apiClient, id, path, data);
+            pending.add(send);
+            send.setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                @Override public void onResult(@NonNull MessageApi.SendMessageResult result) {
+                    try {
+                        results.set(index, nodeResult(id, path, result.getStatus(), startNanos));
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        try {
+            // a little longer than the timeout, in case the callbacks are delivered late
+            latch.await(timeoutMs + TimeUnit.SECONDS.toMillis(1), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<MessageResult.NodeResult> nodeResults = new ArrayList<MessageResult.NodeResult>(size);
+        for (int i = 0; i < size; i++) {
+            MessageResult.NodeResult result = results.get(i);
+            if (result == null) {
+                pending.get(i).cancel();
+                result = nodeResult(nodeIds.get(i), path, null, startNanos);
+            }
+            nodeResults.add(result);
+        }
+        return nodeResults;
+    }
+
+    private static MessageResult.NodeResult nodeResult(String nodeId, String path, @Nullable Status status,
+            long startNanos) {
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        boolean timedOut = status == null || status.getStatusCode() == CommonStatusCodes.TIMEOUT;
+        boolean success = status != null && status.isSuccess();
+        WearLog.i(TAG, "%s sending message: %s to node: %s in %dms",
+                success ? "SUCCESS" : "FAILED", path, nodeId, latencyMillis);
+        if (!success) {
+            WearLog.e(TAG, "error sending message: %s", status);
+        }
+        return new MessageResult.NodeResult(nodeId,
+                status == null ? CommonStatusCodes.TIMEOUT : status.getStatusCode(),
+                success, timedOut, latencyMillis);
+    }
+
+    /**
+     * Holds a result callback in process while the intent is handled.
+     */
+    private static final class ResultRunner implements ServiceRunners.Runner {
+        private final Callback<MessageResult> callback;
+
+        private ResultRunner(Callback<MessageResult> callback) {
+            this.callback = callback;
+        }
+
+        private void deliver(final MessageResult result) {
+            WearExecutors.mainThread().execute(new Runnable() {
+                @Override public void run() {
+                    callback.onResult(result);
+                }
+            });
+        }
     }
 }
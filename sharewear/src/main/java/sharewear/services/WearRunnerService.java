@@ -24,17 +24,51 @@
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 
+import java.util.concurrent.RejectedExecutionException;
+
+import sharewear.internal.ApiClientPool;
+import sharewear.internal.WearExecutors;
+import sharewear.internal.WearLog;
+
 public class WearRunnerService extends AbstractWearApiService {
     private static final String TAG = WearRunnerService.class.getSimpleName();
 
     private static final ServiceRunners<Runner> sRunners = ServiceRunners.create();
+    private static volatile boolean sInProcessEnabled = false;
 
     public WearRunnerService() {
         super(TAG);
     }
 
+    /**
+     * Enables or disables running runners in process when the shared client is already connected. Disabled by
+     * default. In-process runners differ from runners run by the service in two ways: they run on the data executor,
+     * so up to four of them can run concurrently instead of one at a time, and they receive the application context
+     * instead of the service.
+     *
+     * @param enabled
+     *         true to run runners in process when possible, false to always run them through the service
+     */
+    public static void setInProcessEnabled(boolean enabled) {
+        sInProcessEnabled = enabled;
+    }
+
+    /**
+     * Runs a runner with a connected {@code GoogleApiClient} through this service, which connects first and runs
+     * runners one at a time. If in-process runners are enabled with {@link #setInProcessEnabled(boolean)} and the
+     * shared client from the {@link ApiClientPool} is already connected, the runner instead runs directly on the data
+     * executor with the application context, skipping the intent and service lifecycle, and may run concurrently with
+     * other runners.
+     *
+     * @param context
+     *         the context
+     * @param runner
+     *         the runner to run
+     */
     public static void run(@NonNull Context context, @NonNull Runner runner) {
-        context.startService(newIntent(context, runner));
+        if (!sInProcessEnabled || !runInProcess(context, runner)) {
+            context.startService(newIntent(context, runner));
+        }
     }
 
     public static Intent newIntent(@NonNull Context context, @NonNull Runner runner) {
@@ -43,6 +77,32 @@ public static Intent newIntent(@NonNull Context context, @NonNull Runner runner)
         return intent;
     }
 
+    private static boolean runInProcess(@NonNull Context context, @NonNull final Runner runner) {
+        final ApiClientPool pool = ApiClientPool.getInstance();
+        final GoogleApiClient apiClient = pool.acquireConnected();
+        if (apiClient == null) {
+            return false;
+        }
+        final Context appContext = context.getApplicationContext();
+        try {
+            WearExecutors.execute(new Runnable() {
+                @Override public void run() {
+                    try {
+                        runner.run(appContext, apiClient);
+                    } catch (Exception e) {
+                        WearLog.e(TAG, "received an exception running runner", e);
+                    } finally {
+                        pool.release(apiClient);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pool.release(apiClient);
+            return false;
+        }
+    }
+
     @Override
     protected void onHandleIntentConnected(@NonNull GoogleApiClient apiClient,
             @Nullable Intent intent) {
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.util;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Memory cache of decoded bitmaps, bounded by the total bytes of the cached bitmaps and evicting the least recently
+ * used first. Cached bitmaps are shared with every caller, so the cache counts the references it hands out. A bitmap
+ * is only moved to the {@link BitmapPool} for reuse once it has been evicted and every reference has been released.
+ * Bitmaps that callers never release are never reused.
+ */
+final class BitmapCache {
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // references handed out, by bitmap. Bitmap uses identity equality, and the keys are weak so that bitmaps callers
+    // drop without releasing them can still be collected.
+    private final WeakHashMap<Bitmap, References> handedOut = new WeakHashMap<Bitmap, References>();
+    private final BitmapPool pool;
+    private int maxBytes;
+    private int size;
+
+    BitmapCache(int maxBytes, @NonNull BitmapPool pool) {
+        this.maxBytes = maxBytes;
+        this.pool = pool;
+    }
+
+    /**
+     * Gets a cached bitmap and holds a reference to it, which must be released with {@link #release(Bitmap)}.
+     *
+     * @param key
+     *         the key
+     *
+     * @return the bitmap, or null if it is not cached
+     */
+    @Nullable
+    synchronized Bitmap acquire(@NonNull String key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.bitmap.isRecycled()) {
+            remove(key);
+            return null;
+        }
+        hold(entry);
+        return entry.bitmap;
+    }
+
+    /**
+     * Caches a bitmap and holds a reference to it for the caller that decoded it.
+     *
+     * @param key
+     *         the key
+     * @param bitmap
+     *         the bitmap
+     *
+     * @return true if the bitmap was cached, false if it is too large and still belongs only to the caller
+     */
+    synchronized boolean put(@NonNull String key, @NonNull Bitmap bitmap) {
+        // the size is recorded now, since the bitmap may have been recycled by the time it is evicted
+        int bytes = ImageUtils.getByteCount(bitmap);
+        if (bytes > maxBytes) {
+            return false;
+        }
+        Entry entry = new Entry(bitmap, bytes);
+        hold(entry);
+        Entry previous = cache.put(key, entry);
+        if (previous != null) {
+            size -= previous.bytes;
+            evicted(previous);
+        }
+        size += bytes;
+        trimToSize();
+        return true;
+    }
+
+    /**
+     * Releases a reference from {@link #acquire(String)} or {@link #put(String, Bitmap)}.
+     *
+     * @param bitmap
+     *         the bitmap
+     *
+     * @return true if the bitmap came from this cache, false if it did not and belongs only to the caller
+     */
+    synchronized boolean release(@NonNull Bitmap bitmap) {
+        References references = handedOut.get(bitmap);
+        if (references == null) {
+            return false;
+        }
+        if (--references.count == 0) {
+            handedOut.remove(bitmap);
+            if (references.evicted) {
+                pool.put(bitmap);
+            }
+        }
+        return true;
+    }
+
+    synchronized void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    synchronized void clear() {
+        for (Entry entry : cache.values()) {
+            evicted(entry);
+        }
+        cache.clear();
+        size = 0;
+    }
+
+    private void hold(Entry entry) {
+        entry.references.count++;
+        handedOut.put(entry.bitmap, entry.references);
+    }
+
+    private void evicted(Entry entry) {
+        entry.references.evicted = true;
+        if (entry.references.count == 0) {
+            pool.put(entry.bitmap);
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = cache.remove(key);
+        if (removed != null) {
+            size -= removed.bytes;
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            size -= entry.bytes;
+            iterator.remove();
+            evicted(entry);
+        }
+    }
+
+    private static final class Entry {
+        private final Bitmap bitmap;
+        private final int bytes;
+        private final References references = new References();
+
+        private Entry(Bitmap bitmap, int bytes) {
+            this.bitmap = bitmap;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class References {
+        private int count;
+        private boolean evicted;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.util;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+/**
+ * Encodes a {@link Bitmap} into bytes before it is shared through {@link sharewear.SharedParcel#writeBitmap(Bitmap,
+ * int)}. Set the default encoder with {@link sharewear.Sharewear#setBitmapEncoder(BitmapEncoder)}.
+ */
+public interface BitmapEncoder {
+    /**
+     * Encodes bitmaps as full resolution PNGs.
+     */
+    BitmapEncoder PNG = new BitmapEncoder() {
+        @Override
+        public byte[] encode(@NonNull Bitmap bitmap) {
+            return ImageUtils.toPngBytes(bitmap);
+        }
+    };
+
+    /**
+     * Encodes the bitmap.
+     *
+     * @param bitmap
+     *         the bitmap to encode
+     *
+     * @return the encoded bytes
+     */
+    byte[] encode(@NonNull Bitmap bitmap);
+}
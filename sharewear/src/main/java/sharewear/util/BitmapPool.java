@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of bitmaps that are no longer displayed and may be reused through {@link BitmapFactory.Options#inBitmap} when
+ * decoding. Requires API 11. Before API 19, a bitmap can only be reused for an image of exactly the same size.
+ */
+final class BitmapPool {
+    static final boolean CAN_REUSE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+    private final List<Bitmap> pool = new ArrayList<Bitmap>();
+    private int maxBytes;
+    private int size;
+
+    BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized boolean isEmpty() {
+        return pool.isEmpty();
+    }
+
+    synchronized void put(@NonNull Bitmap bitmap) {
+        if (!CAN_REUSE || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = ImageUtils.getByteCount(bitmap);
+        if (bytes > maxBytes) {
+            return;
+        }
+        pool.add(bitmap);
+        size += bytes;
+        while (size > maxBytes) {
+            size -= ImageUtils.getByteCount(pool.remove(0));
+        }
+    }
+
+    /**
+     * Takes a bitmap that can hold the image described by the options, which must contain the decoded bounds.
+     *
+     * @param options
+     *         the decoding options
+     *
+     * @return the reusable bitmap or null if there is none
+     */
+    @Nullable
+    synchronized Bitmap take(@NonNull BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = options.outWidth / sampleSize;
+        int height = options.outHeight / sampleSize;
+        for (int i = 0; i < pool.size(); i++) {
+            Bitmap candidate = pool.get(i);
+            if (canReuse(candidate, width, height, sampleSize)) {
+                pool.remove(i);
+                size -= ImageUtils.getByteCount(candidate);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    synchronized void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        while (size > maxBytes && !pool.isEmpty()) {
+            size -= ImageUtils.getByteCount(pool.remove(0));
+        }
+    }
+
+    synchronized void clear() {
+        pool.clear();
+        size = 0;
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height, int sampleSize) {
+        if (candidate.isRecycled()) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // assume the worst case of 4 bytes per pixel
+            return width * height * 4 <= candidate.getAllocationByteCount();
+        }
+        return sampleSize == 1 && candidate.getWidth() == width && candidate.getHeight() == height;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.util;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link BitmapEncoder} that remembers the bytes it encoded for each bitmap, so encoding the same unchanged bitmap
+ * again costs nothing. Entries are keyed by the bitmap instance and its {@link Bitmap#getGenerationId()}, so a bitmap
+ * that has been modified since is encoded again. The cache holds at most a fixed number of encoded bytes, evicting
+ * the least recently used entries. Caching requires API 12; on older devices every call encodes.
+ */
+public final class CachingBitmapEncoder implements BitmapEncoder {
+    private static final boolean CAN_CACHE
+            = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1;
+
+    private final BitmapEncoder encoder;
+    private final int maxBytes;
+    private final LinkedHashMap<Key, byte[]> cache = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+    private int size;
+
+    /**
+     * Creates a caching encoder.
+     *
+     * @param encoder
+     *         the encoder to cache results of
+     * @param maxBytes
+     *         the maximum number of encoded bytes to keep
+     */
+    public CachingBitmapEncoder(@NonNull BitmapEncoder encoder, int maxBytes) {
+        this.encoder = encoder;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public byte[] encode(@NonNull Bitmap bitmap) {
+        if (!CAN_CACHE) {
+            return encoder.encode(bitmap);
+        }
+
+        Key key = new Key(bitmap);
+        synchronized (cache) {
+            byte[] cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        byte[] bytes = encoder.encode(bitmap);
+        if (bytes != null && bytes.length <= maxBytes) {
+            synchronized (cache) {
+                byte[] previous = cache.put(key, bytes);
+                if (previous != null) {
+                    size -= previous.length;
+                }
+                size += bytes.length;
+                trimToSize();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Removes all cached bytes.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Key, byte[]>> iterator = cache.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            size -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    private static final class Key {
+        private final WeakReference<Bitmap> bitmap;
+        private final int generationId;
+        private final int hashCode;
+
+        private Key(Bitmap bitmap) {
+            this.bitmap = new WeakReference<Bitmap>(bitmap);
+            this.generationId = bitmap.getGenerationId();
+            this.hashCode = 31 * System.identityHashCode(bitmap) + generationId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            Bitmap bitmap = this.bitmap.get();
+            // entries whose bitmap was collected never match and are eventually evicted
+            return bitmap != null && bitmap == key.bitmap.get() && generationId == key.generationId;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -18,15 +18,14 @@
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 import android.support.annotation.NonNull;
 
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.Wearable;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 
 import sharewear.WearUtils;
 import sharewear.internal.WearLog;
@@ -36,6 +35,11 @@
  */
 public final class ImageUtils {
     private static final String TAG = ImageUtils.class.getSimpleName();
+    private static final int DEFAULT_CACHE_SIZE = 2 * 1024 * 1024;
+    private static final int DEFAULT_POOL_SIZE = 2 * 1024 * 1024;
+
+    private static final BitmapPool sPool = new BitmapPool(DEFAULT_POOL_SIZE);
+    private static final BitmapCache sCache = new BitmapCache(DEFAULT_CACHE_SIZE, sPool);
 
     private ImageUtils() {}
 
@@ -57,6 +61,158 @@ public static Bitmap toBitmap(byte[] bytes) {
         return bitmap;
     }
 
+    /**
+     * Converts a region of a byte array to a {@link Bitmap}.
+     *
+     * @param bytes
+     *         the byte array to convert
+     * @param offset
+     *         the offset of the image data
+     * @param length
+     *         the length of the image data
+     *
+     * @return the Bitmap or null if it could not be converted
+     */
+    public static Bitmap toBitmap(byte[] bytes, int offset, int length) {
+        return toBitmap(bytes, offset, length, 0, 0);
+    }
+
+    /**
+     * Converts a region of a byte array to a {@link Bitmap}, downsampling by a power of two while the result stays at
+     * least as large as the requested size. Bitmaps handed back through {@link #releaseBitmap(Bitmap)} are reused
+     * when possible, and the result is mutable so that it can be released in turn.
+     *
+     * @param bytes
+     *         the byte array to convert
+     * @param offset
+     *         the offset of the image data
+     * @param length
+     *         the length of the image data
+     * @param reqWidth
+     *         the requested width, or 0 for the full width
+     * @param reqHeight
+     *         the requested height, or 0 for the full height
+     *
+     * @return the Bitmap or null if it could not be converted
+     */
+    public static Bitmap toBitmap(byte[] bytes, int offset, int length, int reqWidth, int reqHeight) {
+        if (bytes == null || length <= 0) {
+            return null;
+        }
+        boolean reuse = BitmapPool.CAN_REUSE && !sPool.isEmpty();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (reuse || reqWidth > 0 || reqHeight > 0) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(bytes, offset, length, options);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        }
+        if (BitmapPool.CAN_REUSE) {
+            // keep decoded bitmaps mutable so they can be pooled once released
+            options.inMutable = true;
+            if (reuse) {
+                options.inBitmap = sPool.take(options);
+            }
+        }
+        try {
+            return BitmapFactory.decodeByteArray(bytes, offset, length, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            // the pooled bitmap could not hold the image after all
+            WearLog.d(TAG, "could not reuse bitmap", e);
+            sPool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(bytes, offset, length, options);
+        }
+    }
+
+    /**
+     * Calculates the largest power of two sample size that keeps an image at least as large as the requested size.
+     *
+     * @param width
+     *         the width of the image
+     * @param height
+     *         the height of the image
+     * @param reqWidth
+     *         the requested width, or 0 for the full width
+     * @param reqHeight
+     *         the requested height, or 0 for the full height
+     *
+     * @return the sample size
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        if (reqWidth <= 0 && reqHeight <= 0) {
+            return 1;
+        }
+        int sampleSize = 1;
+        while ((reqWidth <= 0 || width / (sampleSize * 2) >= reqWidth)
+                && (reqHeight <= 0 || height / (sampleSize * 2) >= reqHeight)
+                && width / (sampleSize * 2) > 0 && height / (sampleSize * 2) > 0) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Gets the number of bytes used to store the pixels of a {@link Bitmap}.
+     *
+     * @param bitmap
+     *         the bitmap
+     *
+     * @return the size in bytes
+     */
+    public static int getByteCount(@NonNull Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            return bitmap.getByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Hands back a {@link Bitmap} that is no longer displayed so that its memory can be reused when decoding other
+     * bitmaps. The bitmap must not be used again by the caller. Bitmaps from {@link #fromAsset(GoogleApiClient,
+     * Asset, int, int)} are shared through the memory cache, so they are only reused once they have been evicted and
+     * every caller that loaded them has released them. Requires API 11, otherwise this does nothing.
+     *
+     * @param bitmap
+     *         the bitmap to release
+     */
+    public static void releaseBitmap(Bitmap bitmap) {
+        if (bitmap != null && !sCache.release(bitmap)) {
+            sPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Sets the maximum total size of bitmaps decoded from assets that are kept in memory. Defaults to 2MB.
+     *
+     * @param maxBytes
+     *         the maximum size in bytes, or 0 to disable the cache
+     */
+    public static void setBitmapCacheSize(int maxBytes) {
+        sCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Sets the maximum total size of released bitmaps kept for reuse. Defaults to 2MB.
+     *
+     * @param maxBytes
+     *         the maximum size in bytes, or 0 to disable reuse
+     */
+    public static void setBitmapPoolSize(int maxBytes) {
+        sPool.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Clears all cached and pooled bitmaps, for example when the app is asked to trim its memory.
+     */
+    public static void clearBitmapCache() {
+        sCache.clear();
+        sPool.clear();
+    }
+
     /**
      * Converts a {@link Bitmap} into a byte array.
      *
@@ -92,16 +248,79 @@ public static byte[] toBytes(Bitmap bitmap, Bitmap.CompressFormat format, int qu
         return bytes;
     }
 
+    /**
+     * Scales a {@link Bitmap} down to fit within a maximum size, keeping its aspect ratio. Bitmaps that already fit are
+     * returned as they are.
+     *
+     * @param bitmap
+     *         the bitmap to scale
+     * @param maxWidth
+     *         the maximum width, or 0 for no maximum
+     * @param maxHeight
+     *         the maximum height, or 0 for no maximum
+     *
+     * @return the scaled bitmap, or {@code bitmap} if no scaling was needed
+     */
+    public static Bitmap scaleToFit(@NonNull Bitmap bitmap, int maxWidth, int maxHeight) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        float scale = 1f;
+        if (maxWidth > 0 && width > maxWidth) {
+            scale = (float) maxWidth / width;
+        }
+        if (maxHeight > 0 && height * scale > maxHeight) {
+            scale = (float) maxHeight / height;
+        }
+        if (scale >= 1f) {
+            return bitmap;
+        }
+        int scaledWidth = Math.max(1, Math.round(width * scale));
+        int scaledHeight = Math.max(1, Math.round(height * scale));
+        return Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
+    }
+
     public static Bitmap fromAsset(@NonNull GoogleApiClient apiClient, @NonNull Asset asset) {
-        InputStream assetInputStream = Wearable.DataApi.getFdForAsset(apiClient, asset)
-                .await()
-                .getInputStream();
+        return fromAsset(apiClient, asset, 0, 0);
+    }
 
-        if (assetInputStream == null) {
-            WearLog.w(TAG, "Requested an unknown Asset.");
-            return null;
+    /**
+     * Loads the {@link Bitmap} stored in an {@link Asset}, downsampled to the requested size. Bitmaps are cached in
+     * memory by the asset digest, so loading the same asset again does not fetch and decode it again. A cached bitmap
+     * is shared with every caller loading the same asset, so it must not be modified or recycled. Hand it back with
+     * {@link #releaseBitmap(Bitmap)} once it is no longer displayed, so that its memory can be reused after it leaves
+     * the cache. Decoding reuses the memory of released bitmaps. This blocks and must not be called on the main
+     * thread.
+     *
+     * @param apiClient
+     *         the connected api client
+     * @param asset
+     *         the asset to load
+     * @param reqWidth
+     *         the requested width, or 0 for the full width
+     * @param reqHeight
+     *         the requested height, or 0 for the full height
+     *
+     * @return the bitmap or null if it could not be loaded
+     */
+    public static Bitmap fromAsset(@NonNull GoogleApiClient apiClient, @NonNull Asset asset, int reqWidth,
+            int reqHeight) {
+        String digest = asset.getDigest();
+        String key = digest == null ? null : digest + '@' + reqWidth + 'x' + reqHeight;
+        if (key != null) {
+            Bitmap cached = sCache.acquire(key);
+            if (cached != null) {
+                return cached;
+            }
         }
 
-        return BitmapFactory.decodeStream(assetInputStream);
+        byte[] bytes = WearUtils.readAsset(apiClient, asset);
+        if (bytes == null) {
+            return null;
+        }
+        Bitmap bitmap = toBitmap(bytes, 0, bytes.length, reqWidth, reqHeight);
+        if (bitmap != null && key != null) {
+            sCache.put(key, bitmap);
+        }
+        return bitmap;
     }
 }
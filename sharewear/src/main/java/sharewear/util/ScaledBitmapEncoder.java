@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.util;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+/**
+ * A {@link BitmapEncoder} that downscales bitmaps larger than a maximum size, keeping their aspect ratio, and then
+ * compresses them with a chosen format and quality. For example, to send album art to a watch:
+ * <pre>
+ *     <code>
+ *     new ScaledBitmapEncoder(320, 320, Bitmap.CompressFormat.JPEG, 80);
+ *     </code>
+ * </pre>
+ * Note that {@link Bitmap.CompressFormat#WEBP} requires API 14.
+ */
+public final class ScaledBitmapEncoder implements BitmapEncoder {
+    private final int maxWidth;
+    private final int maxHeight;
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+
+    /**
+     * Creates an encoder.
+     *
+     * @param maxWidth
+     *         the maximum width of the encoded image, or 0 for no maximum
+     * @param maxHeight
+     *         the maximum height of the encoded image, or 0 for no maximum
+     * @param format
+     *         the compression format
+     * @param quality
+     *         the compression quality, 0-100. Ignored for PNG.
+     */
+    public ScaledBitmapEncoder(int maxWidth, int maxHeight, @NonNull Bitmap.CompressFormat format, int quality) {
+        if (maxWidth < 0 || maxHeight < 0) {
+            throw new IllegalArgumentException("max dimensions must not be negative");
+        }
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("quality must be 0-100");
+        }
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    @Override
+    public byte[] encode(@NonNull Bitmap bitmap) {
+        Bitmap scaled = ImageUtils.scaleToFit(bitmap, maxWidth, maxHeight);
+        try {
+            return ImageUtils.toBytes(scaled, format, quality);
+        } finally {
+            if (scaled != bitmap) {
+                scaled.recycle();
+            }
+        }
+    }
+}
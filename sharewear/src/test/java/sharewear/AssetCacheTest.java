@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package sharewear;
+
+import com.google.android.gms.wearable.Asset;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, emulateSdk = 18)
+public class AssetCacheTest {
+    @Test
+    public void reusedCallerArrayIsNotSentStale() {
+        AssetCache cache = new AssetCache(1024);
+        byte[] buffer = {1, 2, 3};
+        Asset first = cache.get(buffer, false);
+
+        buffer[0] = 9;
+        Asset second = cache.get(buffer, false);
+
+        assertNotSame(first, second);
+        assertArrayEquals(new byte[]{1, 2, 3}, first.getData());
+        assertArrayEquals(new byte[]{9, 2, 3}, second.getData());
+    }
+
+    @Test
+    public void sameContentSharesOneAsset() {
+        AssetCache cache = new AssetCache(1024);
+        Asset owned = cache.get(new byte[]{1, 2, 3}, true);
+
+        assertSame(owned, cache.get(new byte[]{1, 2, 3}, false));
+        assertSame(owned, cache.get(new byte[]{1, 2, 3}, true));
+    }
+
+    @Test
+    public void oversizedCallerArrayIsCopied() {
+        AssetCache cache = new AssetCache(2);
+        byte[] buffer = {1, 2, 3};
+        Asset asset = cache.get(buffer, false);
+
+        buffer[0] = 9;
+        assertArrayEquals(new byte[]{1, 2, 3}, asset.getData());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CreatorCacheTest {
+    private static final int THREADS = 8;
+    private static final int LOOKUPS = 10000;
+
+    @Test
+    public void separatesClassLoaders() {
+        CreatorCache cache = new CreatorCache();
+        ClassLoader first = new ClassLoader() {};
+        ClassLoader second = new ClassLoader() {};
+        Shareable.Creator<?> firstCreator = new TestCreator();
+        Shareable.Creator<?> secondCreator = new TestCreator();
+        Shareable.Creator<?> nullCreator = new TestCreator();
+
+        cache.put(first, "Item", firstCreator);
+        cache.put(second, "Item", secondCreator);
+        cache.put(null, "Item", nullCreator);
+
+        assertSame(firstCreator, cache.get(first, "Item"));
+        assertSame(secondCreator, cache.get(second, "Item"));
+        assertSame(nullCreator, cache.get(null, "Item"));
+        assertNull(cache.get(first, "Other"));
+        assertNull(cache.get(new ClassLoader() {}, "Item"));
+    }
+
+    @Test
+    public void concurrentLoadersAreNotLost() throws Exception {
+        final CreatorCache cache = new CreatorCache();
+        final ClassLoader[] loaders = new ClassLoader[THREADS];
+        final Shareable.Creator<?>[] creators = new Shareable.Creator<?>[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            loaders[i] = new ClassLoader() {};
+            creators[i] = new TestCreator();
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    awaitQuietly(start);
+                    cache.put(loaders[index], "Item", creators[index]);
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < THREADS; i++) {
+            assertSame(creators[i], cache.get(loaders[i], "Item"));
+        }
+    }
+
+    @Test
+    public void contendedLookupsAlwaysHit() throws Exception {
+        final CreatorCache cache = new CreatorCache();
+        final ClassLoader loader = getClass().getClassLoader();
+        final Shareable.Creator<?> creator = new TestCreator();
+        cache.put(loader, "Item", creator);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger misses = new AtomicInteger();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    awaitQuietly(start);
+                    for (int j = 0; j < LOOKUPS; j++) {
+                        if (cache.get(loader, "Item") != creator) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, misses.get());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class TestCreator extends Shareable.Creator<Shareable> {
+        @Override public int getVersion() {
+            return 1;
+        }
+
+        @Override public Shareable createFromSharedParcel(SharedParcel source, int version) {
+            return null;
+        }
+
+        @Override public Shareable[] newArray(int size) {
+            return new Shareable[size];
+        }
+    }
+}
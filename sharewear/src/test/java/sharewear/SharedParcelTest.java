@@ -0,0 +1,358 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear;
+
+import com.google.android.gms.wearable.DataMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import sharewear.internal.ByteWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, emulateSdk = 18)
+public class SharedParcelTest {
+    @Test
+    public void compactDataMapRoundTrip() {
+        Item item = Item.sample(SharedParcel.ENCODING_COMPACT);
+        DataMap dataMap = new DataMap();
+        item.writeToDataMap(null, dataMap);
+
+        Item read = Item.CREATOR.createFromDataMap(null, dataMap, Item.CREATOR.getVersion());
+        assertItemEquals(item, read);
+    }
+
+    @Test
+    public void sharedReferencesDataMapRoundTrip() {
+        Item item = Item.sample(SharedParcel.ENCODING_SHARED_REFERENCES);
+        item.first = item.children.get(0);
+        item.second = item.children.get(0);
+        DataMap dataMap = new DataMap();
+        item.writeToDataMap(null, dataMap);
+
+        Item read = Item.CREATOR.createFromDataMap(null, dataMap, Item.CREATOR.getVersion());
+        assertItemEquals(item, read);
+        // the repeated object is decoded to the same instance
+        assertNotNull(read.first);
+        assertEquals(item.first.name, read.first.name);
+        assertSame(read.first, read.second);
+    }
+
+    @Test
+    public void compressedDataMapRoundTrip() {
+        Item item = Item.sample(SharedParcel.ENCODING_COMPACT);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("compressible ");
+        }
+        item.name = text.toString();
+        DataMap dataMap = new DataMap();
+        item.writeToDataMap(null, dataMap);
+
+        Item read = Item.CREATOR.createFromDataMap(null, dataMap, Item.CREATOR.getVersion());
+        assertItemEquals(item, read);
+    }
+
+    @Test
+    public void byteBufferRoundTrip() {
+        Item item = Item.sample(SharedParcel.ENCODING_DEFAULT);
+        // start small so the buffer has to grow
+        ByteBuffer buffer = item.writeToByteBuffer(ByteBuffer.allocate(8));
+        buffer.flip();
+
+        Item read = Item.CREATOR.createFromByteBuffer(buffer);
+        assertItemEquals(item, read);
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void littleEndianByteBufferRoundTrip() {
+        Item item = Item.sample(SharedParcel.ENCODING_DEFAULT);
+        ByteBuffer buffer = item.writeToByteBuffer(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN));
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        ByteBuffer expected = item.writeToByteBuffer(ByteBuffer.allocate(8));
+        expected.flip();
+        assertEquals(expected, ByteBuffer.wrap(bytes));
+        Item read = Item.CREATOR.createFromByteBuffer(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+        assertItemEquals(item, read);
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void truncatedByteBufferIsRejected() {
+        Item item = Item.sample(SharedParcel.ENCODING_DEFAULT);
+        ByteBuffer buffer = item.writeToByteBuffer(ByteBuffer.allocate(64));
+        buffer.flip();
+        buffer.limit(buffer.limit() / 2);
+        Item.CREATOR.createFromByteBuffer(buffer);
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void corruptBlobIsRejected() {
+        Item item = Item.sample(SharedParcel.ENCODING_COMPACT);
+        DataMap dataMap = new DataMap();
+        item.writeToDataMap(null, dataMap);
+
+        String blobKey = "SharedParcel-Blob";
+        byte[] blob = dataMap.getByteArray(blobKey);
+        assertNotNull(blob);
+        byte[] corrupt = new byte[blob.length];
+        java.util.Arrays.fill(corrupt, (byte) 0xff);
+        dataMap.putByteArray(blobKey, corrupt);
+        Item.CREATOR.createFromDataMap(null, dataMap, Item.CREATOR.getVersion());
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void oversizedCollectionIsRejected() {
+        ByteWriter writer = new ByteWriter();
+        writer.writeUnsignedVarInt(Integer.MAX_VALUE);
+        writer.writeByte(0);
+        new SharedParcel(ByteBuffer.wrap(writer.toByteArray())).readShareableList(Item.class.getClassLoader());
+    }
+
+    @Test
+    public void nullCollectionRoundTrip() {
+        Item item = Item.sample(SharedParcel.ENCODING_DEFAULT);
+        item.children = null;
+        ByteBuffer buffer = item.writeToByteBuffer(ByteBuffer.allocate(64));
+        buffer.flip();
+        assertEquals(0, Item.CREATOR.createFromByteBuffer(buffer).children.size());
+    }
+
+    @Test
+    public void olderCreatorSkipsUnreadFields() {
+        Holder read = readWithOlderCreator(SharedParcel.ENCODING_COMPACT);
+        assertEquals("name", read.versioned.name);
+        assertNull(read.versioned.extra);
+        assertEquals("later", read.after);
+        assertEquals("repeated", read.last);
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void olderCreatorIsRejectedWithSharedReferences() {
+        readWithOlderCreator(SharedParcel.ENCODING_SHARED_REFERENCES);
+    }
+
+    private static Holder readWithOlderCreator(int encoding) {
+        Holder holder = new Holder(encoding);
+        holder.versioned = new Versioned();
+        holder.versioned.name = "name";
+        holder.versioned.extra = "repeated";
+        holder.after = "later";
+        holder.last = "repeated";
+        DataMap dataMap = new DataMap();
+        holder.writeToDataMap(null, dataMap);
+
+        Versioned.sReadExtra = false;
+        try {
+            return Holder.CREATOR.createFromDataMap(null, dataMap, Holder.CREATOR.getVersion());
+        } finally {
+            Versioned.sReadExtra = true;
+        }
+    }
+
+    private static void assertItemEquals(Item expected, Item actual) {
+        assertNotNull(actual);
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.name, actual.name);
+        assertNull(actual.missing);
+        assertArrayEquals(expected.values, actual.values);
+        assertEquals(expected.children.size(), actual.children.size());
+        for (int i = 0; i < expected.children.size(); i++) {
+            Item expectedChild = expected.children.get(i);
+            Item actualChild = actual.children.get(i);
+            assertEquals(expectedChild.id, actualChild.id);
+            assertEquals(expectedChild.name, actualChild.name);
+        }
+    }
+
+    static final class Item extends Shareable {
+        public static final Shareable.Creator<Item> CREATOR = new Shareable.Creator<Item>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public Item createFromSharedParcel(SharedParcel source, int version) {
+                Item item = new Item(SharedParcel.ENCODING_DEFAULT);
+                item.id = source.readLong();
+                item.name = source.readString();
+                item.missing = source.readString();
+                item.values = source.readIntArray();
+                List<Item> children = source.readShareableList(Item.class.getClassLoader());
+                item.children = children != null ? children : new ArrayList<Item>();
+                item.first = source.readShareable(Item.class.getClassLoader());
+                item.second = source.readShareable(Item.class.getClassLoader());
+                return item;
+            }
+
+            @Override public Item[] newArray(int size) {
+                return new Item[size];
+            }
+        };
+
+        final int encoding;
+        long id;
+        String name;
+        String missing;
+        int[] values;
+        List<Item> children = new ArrayList<Item>();
+        Item first;
+        Item second;
+
+        Item(int encoding) {
+            this.encoding = encoding;
+        }
+
+        static Item sample(int encoding) {
+            Item item = new Item(encoding);
+            item.id = Long.MAX_VALUE;
+            item.name = "parent";
+            item.values = new int[]{1, -2, Integer.MIN_VALUE};
+            for (int i = 0; i < 2; i++) {
+                Item child = new Item(encoding);
+                child.id = i;
+                child.name = "child " + i;
+                item.children.add(child);
+            }
+            return item;
+        }
+
+        @Override public int getVersion() {
+            return CREATOR.getVersion();
+        }
+
+        @Override public int getEncoding() {
+            return encoding;
+        }
+
+        @Override public void writeToSharedParcel(SharedParcel dest, int flags) {
+            dest.writeLong(id);
+            dest.writeString(name);
+            dest.writeString(missing);
+            dest.writeIntArray(values);
+            dest.writeShareableList(children, flags);
+            dest.writeShareable(first, flags);
+            dest.writeShareable(second, flags);
+        }
+
+        @Override public int describeContents() {
+            return 0;
+        }
+    }
+
+    public static final class Holder extends Shareable {
+        public static final Shareable.Creator<Holder> CREATOR = new Shareable.Creator<Holder>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public Holder createFromSharedParcel(SharedParcel source, int version) {
+                Holder holder = new Holder(SharedParcel.ENCODING_DEFAULT);
+                holder.versioned = source.readShareable(Versioned.class.getClassLoader());
+                holder.after = source.readString();
+                holder.last = source.readString();
+                return holder;
+            }
+
+            @Override public Holder[] newArray(int size) {
+                return new Holder[size];
+            }
+        };
+
+        final int encoding;
+        Versioned versioned;
+        String after;
+        String last;
+
+        Holder(int encoding) {
+            this.encoding = encoding;
+        }
+
+        @Override public int getVersion() {
+            return CREATOR.getVersion();
+        }
+
+        @Override public int getEncoding() {
+            return encoding;
+        }
+
+        @Override public void writeToSharedParcel(SharedParcel dest, int flags) {
+            dest.writeShareable(versioned, flags);
+            dest.writeString(after);
+            dest.writeString(last);
+        }
+
+        @Override public int describeContents() {
+            return 0;
+        }
+    }
+
+    /** A Shareable whose creator can act like an older version that does not know about the extra field. */
+    public static final class Versioned extends Shareable {
+        static volatile boolean sReadExtra = true;
+
+        public static final Shareable.Creator<Versioned> CREATOR = new Shareable.Creator<Versioned>() {
+            @Override public int getVersion() {
+                return 2;
+            }
+
+            @Override public Versioned createFromSharedParcel(SharedParcel source, int version) {
+                Versioned versioned = new Versioned();
+                versioned.name = source.readString();
+                if (sReadExtra) {
+                    versioned.extra = source.readString();
+                }
+                return versioned;
+            }
+
+            @Override public Versioned[] newArray(int size) {
+                return new Versioned[size];
+            }
+        };
+
+        String name;
+        String extra;
+
+        @Override public int getVersion() {
+            return CREATOR.getVersion();
+        }
+
+        @Override public void writeToSharedParcel(SharedParcel dest, int flags) {
+            dest.writeString(name);
+            dest.writeString(extra);
+        }
+
+        @Override public int describeContents() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import sharewear.SharedData;
+import sharewear.SharedParcel;
+import sharewear.Shareable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotStoreTest {
+    private File file;
+    private SnapshotStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("snapshot", ".bin");
+        store = SnapshotStore.open(file);
+        store.subscribe("/items/");
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        file.delete();
+    }
+
+    @Test
+    public void recordsSubscribedPathsOnly() {
+        store.put(new Item("/items/1", "one"));
+        store.put(new Item("/other/1", "other"));
+
+        assertEquals("one", store.<Item>get("/items/1", null).title);
+        assertNull(store.get("/other/1", null));
+    }
+
+    @Test
+    public void compactsAndReopens() throws Exception {
+        String padding = new String(new char[64]).replace('\0', 'x');
+        for (int i = 0; i < 5000; i++) {
+            store.put(new Item("/items/" + (i % 10), i + padding));
+        }
+        store.remove("/items/9");
+        // every path was rewritten 500 times, so the file must have been compacted
+        assertTrue(file.length() < 64 * 1024 * 2);
+
+        store.close();
+        store = SnapshotStore.open(file);
+        List<Item> items = store.getAll("/items/", null);
+        assertEquals(9, items.size());
+        assertEquals("4995" + padding, items.get(5).title);
+    }
+
+    @Test
+    public void failedCompactionKeepsSnapshot() throws Exception {
+        File full = new File("/dev/full");
+        if (!full.exists()) {
+            return;
+        }
+        // every write to the temporary file fails as if the disk were full
+        File temp = new File(file.getPath() + ".tmp");
+        Files.createSymbolicLink(temp.toPath(), full.toPath());
+        try {
+            for (int i = 0; i < 5000; i++) {
+                store.put(new Item("/items/" + (i % 10), i + padding()));
+            }
+        } finally {
+            temp.delete();
+        }
+        assertFalse(Files.isSymbolicLink(file.toPath()));
+
+        store.close();
+        store = SnapshotStore.open(file);
+        List<Item> items = store.getAll("/items/", null);
+        assertEquals(10, items.size());
+        assertEquals("4995" + padding(), items.get(5).title);
+    }
+
+    @Test
+    public void dropsTornRecord() throws Exception {
+        store.put(new Item("/items/1", "one"));
+        store.close();
+        long length = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(length);
+        raf.write(new byte[]{0, 0, 0, 50, 1, 2, 3});
+        raf.close();
+
+        store = SnapshotStore.open(file);
+        assertEquals(length, file.length());
+        assertEquals("one", store.<Item>get("/items/1", null).title);
+    }
+
+    @Test
+    public void reconcileRemovesStalePaths() {
+        store.put(new Item("/items/1", "one"));
+        store.put(new Item("/items/2", "two"));
+        store.reconcile("/items/", Collections.singletonList(new Item("/items/2", "live")));
+
+        assertNull(store.get("/items/1", null));
+        assertEquals("live", store.<Item>get("/items/2", null).title);
+    }
+
+    @Test
+    public void readsWhileWriting() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        store.put(new Item("/items/0", "0"));
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread() {
+                @Override public void run() {
+                    try {
+                        for (int j = 0; j < 2000; j++) {
+                            assertNotNull(store.get("/items/0", null));
+                            store.getAll("/items/", null);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+        String padding = new String(new char[64]).replace('\0', 'x');
+        for (int i = 0; i < 5000; i++) {
+            store.put(new Item("/items/" + (i % 10), i + padding));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private static String padding() {
+        return new String(new char[64]).replace('\0', 'x');
+    }
+
+    public static final class Item extends SharedData {
+        public static final Shareable.Creator<Item> CREATOR = new Shareable.Creator<Item>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public Item createFromSharedParcel(SharedParcel source, int version) {
+                return new Item(source.readString(), source.readString());
+            }
+
+            @Override public Item[] newArray(int size) {
+                return new Item[size];
+            }
+        };
+
+        final String path;
+        final String title;
+
+        Item(String path, String title) {
+            this.path = path;
+            this.title = title;
+        }
+
+        @Override public String getPath() {
+            return path;
+        }
+
+        @Override public int getVersion() {
+            return CREATOR.getVersion();
+        }
+
+        @Override public void writeToSharedParcel(SharedParcel dest, int flags) {
+            dest.writeString(path);
+            dest.writeString(title);
+        }
+
+        @Override public int describeContents() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.internal;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sharewear.BadShareableException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ByteWriterTest {
+    @Test
+    public void encodingIgnoresBufferByteOrder() {
+        float[] floats = {1.5f, -0f, Float.NaN};
+        double[] doubles = {Math.PI, Double.MIN_VALUE};
+        ByteWriter bigEndian = new ByteWriter();
+        // start small so the writer has to grow
+        ByteWriter littleEndian = new ByteWriter(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN));
+        for (ByteWriter writer : new ByteWriter[]{bigEndian, littleEndian}) {
+            writer.writeFixedInt(0xcafebabe);
+            writer.writeFloatArray(floats);
+            writer.writeDoubleArray(doubles);
+        }
+        byte[] bytes = bigEndian.toByteArray();
+        assertArrayEquals(bytes, littleEndian.toByteArray());
+
+        ByteReader reader = new ByteReader(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+        assertEquals(0xcafebabe, reader.readFixedInt());
+        assertArrayEquals(floats, reader.readFloatArray(), 0f);
+        assertArrayEquals(doubles, reader.readDoubleArray(), 0d);
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test
+    public void roundTripsPrimitives() {
+        // start small so the writer has to grow
+        ByteWriter writer = new ByteWriter(ByteBuffer.allocate(4));
+        writer.writeBoolean(true);
+        writer.writeByte(0x7f);
+        writer.writeFixedInt(0xcafebabe);
+        writer.writeVarInt(0);
+        writer.writeVarInt(-1);
+        writer.writeVarInt(Integer.MIN_VALUE);
+        writer.writeVarInt(Integer.MAX_VALUE);
+        writer.writeUnsignedVarInt(300);
+        writer.writeVarLong(Long.MIN_VALUE);
+        writer.writeVarLong(Long.MAX_VALUE);
+        writer.writeString("h\u00e9llo \u2603");
+        writer.writeString(null);
+        writer.writeString("");
+        writer.writeBytes(new byte[]{1, 2, 3});
+        writer.writeBytes(null);
+
+        ByteReader reader = new ByteReader(writer.toByteArray());
+        assertTrue(reader.readBoolean());
+        assertEquals(0x7f, reader.readByte());
+        assertEquals(0xcafebabe, reader.readFixedInt());
+        assertEquals(0, reader.readVarInt());
+        assertEquals(-1, reader.readVarInt());
+        assertEquals(Integer.MIN_VALUE, reader.readVarInt());
+        assertEquals(Integer.MAX_VALUE, reader.readVarInt());
+        assertEquals(300, reader.readUnsignedVarInt());
+        assertEquals(Long.MIN_VALUE, reader.readVarLong());
+        assertEquals(Long.MAX_VALUE, reader.readVarLong());
+        assertEquals("h\u00e9llo \u2603", reader.readString());
+        assertNull(reader.readString());
+        assertEquals("", reader.readString());
+        assertArrayEquals(new byte[]{1, 2, 3}, reader.readBytes());
+        assertNull(reader.readBytes());
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test
+    public void roundTripsArrays() {
+        int[] ints = {0, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE};
+        long[] longs = {0, -1, Long.MIN_VALUE, Long.MAX_VALUE};
+        float[] floats = {0f, -1.5f, Float.MAX_VALUE, Float.NaN};
+        double[] doubles = {0d, Math.PI, -Double.MAX_VALUE};
+
+        ByteWriter writer = new ByteWriter(ByteBuffer.allocate(1));
+        writer.writeIntArray(ints);
+        writer.writeLongArray(longs);
+        writer.writeFloatArray(floats);
+        writer.writeDoubleArray(doubles);
+        writer.writeIntArray(null);
+        writer.writeDoubleArray(new double[0]);
+
+        ByteReader reader = new ByteReader(writer.toByteArray());
+        assertArrayEquals(ints, reader.readIntArray());
+        assertArrayEquals(longs, reader.readLongArray());
+        assertArrayEquals(floats, reader.readFloatArray(), 0f);
+        assertArrayEquals(doubles, reader.readDoubleArray(), 0d);
+        assertNull(reader.readIntArray());
+        assertEquals(0, reader.readDoubleArray().length);
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test
+    public void stringTableWritesReferences() {
+        Map<String, Integer> written = new HashMap<String, Integer>();
+        ByteWriter writer = new ByteWriter();
+        writer.writeString("repeated value", written);
+        int first = writer.position();
+        writer.writeString("repeated value", written);
+        // a repeated string is written as a one byte reference
+        assertEquals(first + 1, writer.position());
+        writer.writeString(null, written);
+        writer.writeString("other", written);
+
+        List<String> read = new ArrayList<String>();
+        ByteReader reader = new ByteReader(writer.toByteArray());
+        assertEquals("repeated value", reader.readString(read));
+        assertEquals("repeated value", reader.readString(read));
+        assertNull(reader.readString(read));
+        assertEquals("other", reader.readString(read));
+        assertEquals(2, read.size());
+    }
+
+    @Test
+    public void lengthCanBeReservedAndFilledIn() {
+        ByteWriter writer = new ByteWriter();
+        int mark = writer.beginLength();
+        writer.writeString("content");
+        writer.endLength(mark);
+
+        ByteReader reader = new ByteReader(writer.toByteArray());
+        int length = reader.readFixedInt();
+        assertEquals(reader.remaining(), length);
+        reader.skip(length);
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void stringLengthPastEndIsRejected() {
+        ByteWriter writer = new ByteWriter();
+        writer.writeUnsignedVarInt(1000);
+        writer.writeByte('a');
+        new ByteReader(writer.toByteArray()).readString();
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void bytesLengthPastEndIsRejected() {
+        ByteWriter writer = new ByteWriter();
+        writer.writeUnsignedVarInt(Integer.MAX_VALUE);
+        new ByteReader(writer.toByteArray()).readBytes();
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void arrayLengthPastEndIsRejected() {
+        ByteWriter writer = new ByteWriter();
+        writer.writeUnsignedVarInt(1 << 28);
+        new ByteReader(writer.toByteArray()).readLongArray();
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void truncatedVarIntIsRejected() {
+        new ByteReader(new byte[]{(byte) 0x80, (byte) 0x80}).readUnsignedVarInt();
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void overlongVarIntIsRejected() {
+        byte[] bytes = new byte[6];
+        java.util.Arrays.fill(bytes, (byte) 0xff);
+        new ByteReader(bytes).readUnsignedVarInt();
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void truncatedFixedIntIsRejected() {
+        new ByteReader(new byte[]{1, 2}).readFixedInt();
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void invalidStringReferenceIsRejected() {
+        ByteWriter writer = new ByteWriter();
+        // even tags are references, and the table is empty
+        writer.writeUnsignedVarInt(4);
+        new ByteReader(writer.toByteArray()).readString(new ArrayList<String>());
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void skipPastEndIsRejected() {
+        new ByteReader(new byte[4]).skip(5);
+    }
+
+    @Test
+    public void emptyInputHasNothingRemaining() {
+        ByteReader reader = new ByteReader(new byte[0]);
+        assertFalse(reader.remaining() > 0);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.internal;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+
+import sharewear.BadShareableException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressorTest {
+    @After
+    public void tearDown() {
+        Compressor.setThreshold(Compressor.DEFAULT_THRESHOLD);
+        Compressor.setDictionary(null);
+    }
+
+    @Test
+    public void roundTrip() {
+        byte[] data = text(8192);
+        byte[] compressed = Compressor.compress(data, 0, data.length, 0);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < data.length);
+        assertArrayEquals(data, Compressor.decompress(compressed, 0, compressed.length));
+    }
+
+    @Test
+    public void roundTripWithReserveAndOffset() {
+        byte[] data = text(4096);
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 5, data.length);
+        byte[] compressed = Compressor.compress(padded, 5, data.length, 3);
+        assertNotNull(compressed);
+        assertArrayEquals(data, Compressor.decompress(compressed, 3, compressed.length - 3));
+    }
+
+    @Test
+    public void roundTripWithDictionary() {
+        Compressor.setDictionary("sharewear compressible payload".getBytes());
+        byte[] data = text(2048);
+        byte[] compressed = Compressor.compress(data, 0, data.length, 0);
+        assertNotNull(compressed);
+        assertArrayEquals(data, Compressor.decompress(compressed, 0, compressed.length));
+    }
+
+    @Test
+    public void smallPayloadsAreNotCompressed() {
+        byte[] data = text(Compressor.DEFAULT_THRESHOLD - 1);
+        assertNull(Compressor.compress(data, 0, data.length, 0));
+    }
+
+    @Test
+    public void negativeThresholdDisablesCompression() {
+        Compressor.setThreshold(-1);
+        byte[] data = text(8192);
+        assertNull(Compressor.compress(data, 0, data.length, 0));
+    }
+
+    @Test
+    public void incompressiblePayloadsAreNotCompressed() {
+        byte[] data = random(8192);
+        assertNull(Compressor.compress(data, 0, data.length, 0));
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void truncatedDataIsRejected() {
+        byte[] data = text(8192);
+        byte[] compressed = Compressor.compress(data, 0, data.length, 0);
+        Compressor.decompress(compressed, 0, compressed.length / 2);
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void missingDictionaryIsRejected() {
+        Compressor.setDictionary("sharewear compressible payload".getBytes());
+        byte[] data = text(2048);
+        byte[] compressed = Compressor.compress(data, 0, data.length, 0);
+        Compressor.setDictionary(null);
+        Compressor.decompress(compressed, 0, compressed.length);
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void hugeDeclaredLengthIsRejected() {
+        ByteWriter writer = new ByteWriter();
+        writer.writeUnsignedVarInt(Integer.MAX_VALUE);
+        writer.writeRawBytes(new byte[16], 0, 16);
+        byte[] bytes = writer.toByteArray();
+        Compressor.decompress(bytes, 0, bytes.length);
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void shorterDeclaredLengthIsRejected() {
+        byte[] compressed = withDeclaredLength(text(4096), 4000);
+        Compressor.decompress(compressed, 0, compressed.length);
+    }
+
+    @Test(expected = BadShareableException.class)
+    public void longerDeclaredLengthIsRejected() {
+        byte[] compressed = withDeclaredLength(text(4096), 5000);
+        Compressor.decompress(compressed, 0, compressed.length);
+    }
+
+    @Test
+    public void textPayloadsShrinkToUnderAQuarter() {
+        int[] sizes = {2 * 1024, 16 * 1024, 96 * 1024};
+        for (int size : sizes) {
+            byte[] data = text(size);
+            byte[] compressed = Compressor.compress(data, 0, data.length, 0);
+            assertNotNull(compressed);
+            assertTrue(size + " bytes compressed to " + compressed.length, compressed.length * 4 < size);
+            assertArrayEquals(data, Compressor.decompress(compressed, 0, compressed.length));
+        }
+    }
+
+    private static byte[] withDeclaredLength(byte[] data, int declared) {
+        byte[] compressed = Compressor.compress(data, 0, data.length, 0);
+        assertNotNull(compressed);
+        ByteReader reader = new ByteReader(compressed);
+        reader.readUnsignedVarInt();
+        ByteWriter writer = new ByteWriter();
+        writer.writeUnsignedVarInt(declared);
+        writer.writeRawBytes(compressed, reader.position(), reader.remaining());
+        return writer.toByteArray();
+    }
+
+    // json-like text, similar to typical encoded payloads
+    private static byte[] text(int size) {
+        Random random = new Random(size);
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append("{\"id\":").append(random.nextInt(10000))
+                    .append(",\"name\":\"sharewear compressible payload\",\"enabled\":")
+                    .append(random.nextBoolean()).append("},");
+        }
+        builder.setLength(size);
+        return builder.toString().getBytes();
+    }
+
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
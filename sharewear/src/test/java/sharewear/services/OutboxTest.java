@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sharewear.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import sharewear.SharedData;
+import sharewear.SharedParcel;
+import sharewear.Shareable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxTest {
+    private File file;
+    private Outbox outbox;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("outbox", ".bin");
+        outbox = Outbox.open(file);
+    }
+
+    @After
+    public void tearDown() {
+        outbox.close();
+        file.delete();
+    }
+
+    @Test
+    public void putsToTheSamePathAreCoalesced() {
+        assertFalse(outbox.hasPending());
+        for (int i = 0; i < 100; i++) {
+            outbox.put(new Item("/items/" + (i % 5), "title " + i));
+        }
+        assertEquals(5, outbox.size());
+        assertTrue(outbox.hasPending());
+
+        outbox.discard("/items/4", outbox.mark());
+        assertEquals(4, outbox.size());
+    }
+
+    @Test
+    public void discardKeepsPutsQueuedAfterTheMark() {
+        outbox.put(new Item("/items/1", "old"));
+        long mark = outbox.mark();
+        // a newer put to the same path fails while the older one is in flight
+        outbox.put(new Item("/items/1", "new"));
+
+        outbox.discard("/items/1", mark);
+        assertEquals(1, outbox.size());
+
+        outbox.discard("/items/1", outbox.mark());
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void messagesAreNeverCoalesced() {
+        outbox.message(null, "/message", new byte[]{1, 2});
+        outbox.message(null, "/message", new byte[]{1, 2});
+        outbox.message("node", "/message", null);
+        assertEquals(3, outbox.size());
+    }
+
+    @Test
+    public void entriesSurviveReopeningAndCompaction() throws Exception {
+        for (int i = 0; i < 6000; i++) {
+            outbox.put(new Item("/items/" + (i % 5), "title " + i));
+        }
+        outbox.message(null, "/message", new byte[]{1, 2});
+        // 6000 puts to five paths must have been compacted
+        assertTrue(file.length() < 64 * 1024 * 2);
+
+        outbox.close();
+        outbox = Outbox.open(file);
+        assertEquals(6, outbox.size());
+        assertTrue(outbox.hasPending());
+    }
+
+    @Test
+    public void dropsTornRecord() throws Exception {
+        outbox.put(new Item("/items/1", "one"));
+        outbox.close();
+        long length = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(length);
+        raf.write(new byte[]{0, 0, 0, 50, 1, 2, 3});
+        raf.close();
+
+        outbox = Outbox.open(file);
+        assertEquals(length, file.length());
+        assertEquals(1, outbox.size());
+    }
+
+    public static final class Item extends SharedData {
+        public static final Shareable.Creator<Item> CREATOR = new Shareable.Creator<Item>() {
+            @Override public int getVersion() {
+                return 1;
+            }
+
+            @Override public Item createFromSharedParcel(SharedParcel source, int version) {
+                return new Item(source.readString(), source.readString());
+            }
+
+            @Override public Item[] newArray(int size) {
+                return new Item[size];
+            }
+        };
+
+        final String path;
+        final String title;
+
+        Item(String path, String title) {
+            this.path = path;
+            this.title = title;
+        }
+
+        @Override public String getPath() {
+            return path;
+        }
+
+        @Override public int getVersion() {
+            return CREATOR.getVersion();
+        }
+
+        @Override public void writeToSharedParcel(SharedParcel dest, int flags) {
+            dest.writeString(path);
+            dest.writeString(title);
+        }
+
+        @Override public int describeContents() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package sharewear.services;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sharewear.internal.ApiClientPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, emulateSdk = 18)
+public class WearRunnerServiceTest {
+    private static final int RUNNERS = 8;
+
+    private TestContext appContext;
+    private TestContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        GoogleApiClient apiClient = mock(GoogleApiClient.class);
+        when(apiClient.isConnected()).thenReturn(true);
+        setSharedClient(apiClient);
+        appContext = new TestContext(null);
+        context = new TestContext(appContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        WearRunnerService.setInProcessEnabled(false);
+        awaitReleased();
+        setSharedClient(null);
+    }
+
+    @Test
+    public void runsThroughServiceByDefault() {
+        WearRunnerService.run(context, new LatchRunner(new CountDownLatch(1)));
+        assertEquals(1, context.startedServices.get());
+    }
+
+    @Test
+    public void inProcessRunnersRunConcurrentlyWithApplicationContext() throws InterruptedException {
+        WearRunnerService.setInProcessEnabled(true);
+        final CountDownLatch done = new CountDownLatch(RUNNERS);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicInteger appContextRuns = new AtomicInteger();
+        for (int i = 0; i < RUNNERS; i++) {
+            WearRunnerService.run(context, new LatchRunner(done) {
+                @Override public void run(@NonNull Context runContext, @NonNull GoogleApiClient apiClient) {
+                    if (runContext == appContext) {
+                        appContextRuns.incrementAndGet();
+                    }
+                    int running = active.incrementAndGet();
+                    while (true) {
+                        int max = maxActive.get();
+                        if (running <= max || maxActive.compareAndSet(max, running)) {
+                            break;
+                        }
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    active.decrementAndGet();
+                    super.run(runContext, apiClient);
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, context.startedServices.get());
+        assertEquals(RUNNERS, appContextRuns.get());
+        assertTrue("in-process runners should overlap, max active " + maxActive.get(), maxActive.get() > 1);
+    }
+
+    private static void setSharedClient(GoogleApiClient apiClient) throws Exception {
+        Field field = ApiClientPool.class.getDeclaredField("client");
+        field.setAccessible(true);
+        field.set(ApiClientPool.getInstance(), apiClient);
+    }
+
+    // in-process runners release the shared client after they finish, so wait before clearing it
+    private static void awaitReleased() throws Exception {
+        Field field = ApiClientPool.class.getDeclaredField("refCount");
+        field.setAccessible(true);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (field.getInt(ApiClientPool.getInstance()) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, field.getInt(ApiClientPool.getInstance()));
+    }
+
+    private static class LatchRunner implements WearRunnerService.Runner {
+        private final CountDownLatch done;
+
+        LatchRunner(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override public void run(@NonNull Context context, @NonNull GoogleApiClient apiClient) {
+            done.countDown();
+        }
+
+        @Override public void onFailedConnecting(@NonNull Context context,
+                @NonNull ConnectionResult connectionResult) {
+            done.countDown();
+        }
+    }
+
+    private static final class TestContext extends ContextWrapper {
+        private final Context applicationContext;
+        final AtomicInteger startedServices = new AtomicInteger();
+
+        TestContext(Context applicationContext) {
+            super(null);
+            this.applicationContext = applicationContext;
+        }
+
+        @Override public Context getApplicationContext() {
+            return applicationContext != null ? applicationContext : this;
+        }
+
+        @Override public String getPackageName() {
+            return "sharewear.test";
+        }
+
+        @Override public ComponentName startService(Intent service) {
+            startedServices.incrementAndGet();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Layne Mobile, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package sharewear.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, emulateSdk = 18)
+public class BitmapCacheTest {
+    private static final int SIZE = 10;
+
+    private BitmapPool pool;
+    private BitmapCache cache;
+
+    @Before
+    public void setUp() {
+        pool = new BitmapPool(1024 * 1024);
+        // room for a single bitmap
+        cache = new BitmapCache(ImageUtils.getByteCount(newBitmap()), pool);
+    }
+
+    @Test
+    public void evictedBitmapIsReusedForTheNextCachedDecode() {
+        Bitmap first = newBitmap();
+        assertTrue(cache.put("first", first));
+        assertSame(first, cache.acquire("first"));
+
+        // evicted while two callers still display it
+        cache.put("second", newBitmap());
+        assertNull(cache.acquire("first"));
+        assertTrue(cache.release(first));
+        assertTrue(pool.isEmpty());
+        assertTrue(cache.release(first));
+
+        // the next decode of the same size takes the released bitmap as its inBitmap
+        assertSame(first, pool.take(boundsOptions()));
+    }
+
+    @Test
+    public void releasedBitmapStaysCachedUntilEvicted() {
+        Bitmap bitmap = newBitmap();
+        cache.put("key", bitmap);
+        assertTrue(cache.release(bitmap));
+
+        assertTrue(pool.isEmpty());
+        assertSame(bitmap, cache.acquire("key"));
+        assertTrue(cache.release(bitmap));
+
+        cache.clear();
+        assertSame(bitmap, pool.take(boundsOptions()));
+    }
+
+    @Test
+    public void unreleasedBitmapIsNeverPooled() {
+        Bitmap bitmap = newBitmap();
+        cache.put("first", bitmap);
+        cache.put("second", newBitmap());
+
+        assertTrue(pool.isEmpty());
+    }
+
+    @Test
+    public void uncachedBitmapIsNotTracked() {
+        assertFalse(cache.release(newBitmap()));
+        cache.setMaxBytes(0);
+        Bitmap bitmap = newBitmap();
+        assertFalse(cache.put("key", bitmap));
+        assertFalse(cache.release(bitmap));
+    }
+
+    private static Bitmap newBitmap() {
+        return Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    private static BitmapFactory.Options boundsOptions() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = SIZE;
+        options.outHeight = SIZE;
+        options.inSampleSize = 1;
+        return options;
+    }
+}